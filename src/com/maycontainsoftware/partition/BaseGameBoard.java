@@ -10,6 +10,7 @@ import com.badlogic.gdx.graphics.g2d.TextureAtlas;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.scenes.scene2d.InputEvent;
 import com.badlogic.gdx.scenes.scene2d.InputListener;
+import com.badlogic.gdx.scenes.scene2d.Stage;
 import com.badlogic.gdx.utils.Scaling;
 import com.maycontainsoftware.general.FixedSizeWidgetGroup;
 import com.maycontainsoftware.partition.arbiter.Arbiter;
@@ -87,6 +88,9 @@ public abstract class BaseGameBoard extends FixedSizeWidgetGroup implements IBoa
 		// Create the Arbiter
 		arbiter = new Arbiter(state, this, players, tiles, playerConfiguration);
 
+		// Let computer players think ahead while a human is deciding - demo games have nobody to wait for
+		arbiter.setPondering(!isDemoMode);
+
 		// Direct tile input events to the arbiter's input method
 		for (final TileActor tile : tiles) {
 			tile.addListener(new InputListener() {
@@ -134,4 +138,14 @@ public abstract class BaseGameBoard extends FixedSizeWidgetGroup implements IBoa
 		// Reset the arbiter to set the game to its initial state
 		arbiter.doReset();
 	}
+
+	@Override
+	protected void setStage(final Stage stage) {
+		super.setStage(stage);
+
+		// Removed from the screen, however the game was left - stop the AI thinking or pondering about it
+		if (stage == null) {
+			arbiter.cancelAi();
+		}
+	}
 }
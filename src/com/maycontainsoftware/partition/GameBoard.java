@@ -228,6 +228,7 @@ public class GameBoard extends BaseGameBoard {
 			@Override
 			public void changed(ChangeEvent event, Actor actor) {
 				game.soundEngine.play(SoundEngine.SoundId.TONE);
+				arbiter.cancelAi();
 				cardStack.first();
 			}
 		});
@@ -3,6 +3,7 @@ package com.maycontainsoftware.partition;
 import com.badlogic.gdx.Screen;
 import com.maycontainsoftware.general.CGame;
 import com.maycontainsoftware.general.CSoundEngine;
+import com.maycontainsoftware.partition.gamestate.AIExecutor;
 
 /**
  * The main Game instance.
@@ -29,4 +30,12 @@ public class PartitionGame extends CGame {
 	protected CSoundEngine makeSoundEngine() {
 		return new SoundEngine(manager);
 	}
+
+	@Override
+	public void dispose() {
+		// Stop the AI threads before tearing down everything else
+		AIExecutor.shutdown();
+
+		super.dispose();
+	}
 }
@@ -9,10 +9,12 @@ import java.util.Set;
 
 import com.badlogic.gdx.Gdx;
 import com.maycontainsoftware.partition.PlayerConfiguration;
-import com.maycontainsoftware.partition.gamestate.EvaluatingAsyncAI2;
+import com.maycontainsoftware.partition.gamestate.ConnectivityTracker;
 import com.maycontainsoftware.partition.gamestate.GameState;
 import com.maycontainsoftware.partition.gamestate.IAsyncAI;
 import com.maycontainsoftware.partition.gamestate.IAsyncAI.IThinkingCompleteCallback;
+import com.maycontainsoftware.partition.gamestate.SearchingAsyncAI;
+import com.maycontainsoftware.partition.gamestate.TimeManager;
 
 /**
  * The Arbiter is the class that manages the logical flow of the game. It is responsible for remembering what turn state
@@ -26,6 +28,13 @@ public class Arbiter implements IThinkingCompleteCallback {
 	/** Logging flag to control direct sysout logging. */
 	private static final boolean DEBUG_LOG = false;
 
+	/**
+	 * The number of threads each computer player searches with. Kept low, whatever the number of processors, so that
+	 * rendering stays smooth, and so that several boards thinking at once - as on the demo boards - share the
+	 * processors rather than each trying to take all of them.
+	 */
+	private static final int AI_THREADS = 2;
+
 	/** The different turn states the game can be in. */
 	private static enum GameTurnState {
 		PENDING_MOVE,
@@ -48,6 +57,9 @@ public class Arbiter implements IThinkingCompleteCallback {
 	/** The current logical game state. */
 	private GameState state;
 
+	/** Tracks which players can still reach each other, so that a win can be detected without a flood fill. */
+	private final ConnectivityTracker connectivity;
+
 	/** A reference to the logical board component. */
 	private final IBoard board;
 
@@ -63,9 +75,21 @@ public class Arbiter implements IThinkingCompleteCallback {
 	/** The computer AI players. */
 	private final Map<Integer, IAsyncAI> ai;
 
+	/** Allocates the time the computer AI players may spend on each turn. */
+	private final TimeManager timeManager;
+
 	/** The currently active player. */
 	private int activePlayerNumber;
 
+	/**
+	 * The number of the current AI request. Moved on whenever the AI is asked to think and whenever the game is reset
+	 * or abandoned, so that results arriving from earlier requests can be recognized and dropped.
+	 */
+	private int generation;
+
+	/** Whether computer players should ponder while a human player is deciding. Off unless opted into. */
+	private boolean pondering;
+
 	/**
 	 * Create a new Arbiter.
 	 * 
@@ -87,18 +111,24 @@ public class Arbiter implements IThinkingCompleteCallback {
 		// Remember the player configuration
 		this.playerConfiguration = playerConfiguration;
 
+		// Start tracking connectivity
+		connectivity = new ConnectivityTracker(initialGameState);
+
+		// Budget AI thinking time for this board
+		timeManager = new TimeManager(initialGameState);
+
 		// Create computer AI players
 		ai = new HashMap<Integer, IAsyncAI>();
 		for (int i = 0; i < playerConfiguration.getNumberOfPlayers(); i++) {
 			if (playerConfiguration.isComputerPlayer(i)) {
-				ai.put(i, new EvaluatingAsyncAI2(i));
+				ai.put(i, new SearchingAsyncAI(i, AI_THREADS));
 			}
 		}
 
 		if (DEBUG_LOG) {
 			System.out.println("<init>, initialGameState:");
 			// Player 0 coordinates
-			final byte[] coords = initialGameState.playerCoords[0];
+			final byte[] coords = GameState.getPlayerCoords(initialGameState, 0);
 			System.out.println("Player 0 coords: [" + coords[0] + "," + coords[1] + "]");
 		}
 
@@ -108,6 +138,18 @@ public class Arbiter implements IThinkingCompleteCallback {
 		this.tiles = tiles;
 	}
 
+	/**
+	 * Set whether computer players should ponder: think ahead while a human player is deciding, and while the
+	 * computer's own turn is being animated, so that they can reply more quickly. This costs processing time, and
+	 * therefore battery, while the game would otherwise be idle.
+	 * 
+	 * @param pondering
+	 *            True to ponder.
+	 */
+	public void setPondering(final boolean pondering) {
+		this.pondering = pondering;
+	}
+
 	/** Accept a selection event on a tile. */
 	public void input(final ITile tile) {
 
@@ -144,7 +186,7 @@ public class Arbiter implements IThinkingCompleteCallback {
 		if (GameState.isValidMove(state, tile.getCoords())) {
 			// Move is valid
 			// Apply the action to get a new game state
-			state = GameState.apply(state, tile.getCoords());
+			state = GameState.applyUnchecked(state, getSquare(tile));
 
 			// Update the current logical game turn phase
 			turnState = GameTurnState.MOVING;
@@ -160,7 +202,9 @@ public class Arbiter implements IThinkingCompleteCallback {
 	private void doShoot(final ITile tile) {
 		if (GameState.isValidMove(state, tile.getCoords())) {
 			// Apply the action to get a new game state
-			state = GameState.apply(state, tile.getCoords());
+			final int square = getSquare(tile);
+			state = GameState.applyUnchecked(state, square);
+			connectivity.shoot(state, square);
 
 			// Update the current logical game turn phase
 			turnState = GameTurnState.SHOOTING;
@@ -206,7 +250,7 @@ public class Arbiter implements IThinkingCompleteCallback {
 		// Check for a win
 		turnState = GameTurnState.WIN_CHECK;
 
-		if (GameState.isGameOver(state)) {
+		if (connectivity.isGameOver(state)) {
 			// Update the turn state
 			turnState = GameTurnState.WON;
 
@@ -240,7 +284,7 @@ public class Arbiter implements IThinkingCompleteCallback {
 			// Now need to check for a stalemate
 			turnState = GameTurnState.STALEMATE_CHECK;
 
-			if (GameState.isStalemate(state)) {
+			if (GameState.countValidMoves(state, state.currentPlayerIndex) == 0) {
 
 				// Update the turn state
 				turnState = GameTurnState.STALEMATE;
@@ -255,14 +299,7 @@ public class Arbiter implements IThinkingCompleteCallback {
 				turnState = GameTurnState.PENDING_MOVE;
 
 				if (playerConfiguration.isComputerPlayer(activePlayerNumber)) {
-					players.get(activePlayerNumber).doAiThinking();
-
-					// Start the AI thinking
-					final IAsyncAI ai = this.ai.get(activePlayerNumber);
-					if (ai == null) {
-						throw new IllegalStateException("Arbiter::?;no_ai_exists");
-					}
-					ai.startThinking(state, this);
+					startAiThinking();
 				} else {
 					// Tell the player it is now pending a move
 					players.get(activePlayerNumber).doPendingMove();
@@ -271,14 +308,45 @@ public class Arbiter implements IThinkingCompleteCallback {
 		}
 	}
 
+	/** Tell the active player that the AI is thinking, and start the AI thinking. */
+	private void startAiThinking() {
+		players.get(activePlayerNumber).doAiThinking();
+
+		// Start the AI thinking
+		final IAsyncAI ai = this.ai.get(activePlayerNumber);
+		if (ai == null) {
+			throw new IllegalStateException("Arbiter::startAiThinking;no_ai_exists");
+		}
+		ai.startThinking(state, timeManager.allocate(state), ++generation, this);
+	}
+
+	/**
+	 * Abandon any AI thinking in progress. The AI stops thinking as soon as it can, and any result it has already
+	 * delivered is ignored. This should be called whenever the game is being left.
+	 */
+	public void cancelAi() {
+		generation++;
+		for (final IAsyncAI ai : this.ai.values()) {
+			ai.cancel();
+		}
+	}
+
 	@Override
-	public void thinkingComplete() {
+	public void thinkingComplete(final int generation) {
 
 		// TODO: The following ties the Arbiter implementation to libGDX. Is this avoidable?
 		Gdx.app.postRunnable(new Runnable() {
 			@Override
 			public void run() {
 
+				if (generation != Arbiter.this.generation) {
+					// Result of an abandoned request - drop it
+					if (DEBUG_LOG) {
+						System.out.println("Arbiter::thinkingComplete;stale_generation:" + generation);
+					}
+					return;
+				}
+
 				if (!playerConfiguration.isComputerPlayer(activePlayerNumber)) {
 					throw new IllegalStateException("Arbiter::?;not_computer_turn:" + activePlayerNumber);
 				}
@@ -301,12 +369,33 @@ public class Arbiter implements IThinkingCompleteCallback {
 				final byte[] coords = ai.getMove();
 				final ITile tile = findTileByCoords(coords);
 
+				// Think about the opponent's reply while this turn is animated and the opponent decides
+				if (pondering) {
+					ponderAfterTurn(ai);
+				}
+
 				// Handle the move
 				doMove(tile);
 			}
 		});
 	}
 
+	/**
+	 * Start an AI pondering the position that will follow its chosen turn, if a human player will be deciding next.
+	 * 
+	 * @param ai
+	 *            The AI, which has just decided on its turn.
+	 */
+	private void ponderAfterTurn(final IAsyncAI ai) {
+		final byte[] move = ai.getMove();
+		final byte[] shoot = ai.getShoot();
+		GameState next = GameState.applyUnchecked(state, GameState.getSquare(state, move[0], move[1]));
+		next = GameState.applyUnchecked(next, GameState.getSquare(next, shoot[0], shoot[1]));
+		if (!playerConfiguration.isComputerPlayer(next.currentPlayerIndex)) {
+			ai.startPondering(next);
+		}
+	}
+
 	/** Receive notification that the AI player should proceed with its shoot. */
 	public void aiProceedWithShoot() {
 		if (!playerConfiguration.isComputerPlayer(activePlayerNumber)) {
@@ -334,18 +423,22 @@ public class Arbiter implements IThinkingCompleteCallback {
 
 		if (DEBUG_LOG) {
 			System.out.println("doReset, initialGameState:");
-			System.out.println("Player 0 coords: [" + initialGameState.playerCoords[0][0] + ","
-					+ initialGameState.playerCoords[0][1] + "]");
+			final byte[] initialCoords = GameState.getPlayerCoords(initialGameState, 0);
+			System.out.println("Player 0 coords: [" + initialCoords[0] + "," + initialCoords[1] + "]");
 
 			if (state != null) {
 				System.out.println("doReset, current state:");
-				System.out.println("Player 0 coords: [" + state.playerCoords[0][0] + "," + state.playerCoords[0][1]
-						+ "]");
+				final byte[] coords = GameState.getPlayerCoords(state, 0);
+				System.out.println("Player 0 coords: [" + coords[0] + "," + coords[1] + "]");
 			}
 		}
 
+		// Abandon any AI thinking about the previous game
+		cancelAi();
+
 		// Reset to the initial game state
 		state = GameState.duplicate(initialGameState);
+		connectivity.reset(state);
 
 		// Always start waiting for the first move
 		this.turnState = GameTurnState.PENDING_MOVE;
@@ -359,7 +452,7 @@ public class Arbiter implements IThinkingCompleteCallback {
 			final byte[] coords = tile.getCoords();
 
 			// Determine whether the tile should be enabled or disabled
-			final boolean enabled = state.tileEnabled[coords[0]][coords[1]];
+			final boolean enabled = GameState.isTileEnabled(state, coords[0], coords[1]);
 
 			if (DEBUG_LOG) {
 				System.out.println("doReset, resetting tile [" + coords[0] + "," + coords[1] + "]");
@@ -372,7 +465,7 @@ public class Arbiter implements IThinkingCompleteCallback {
 		for (int i = 0; i < players.size(); i++) {
 
 			// Determine the player coordinates
-			final byte[] coords = state.playerCoords[i];
+			final byte[] coords = GameState.getPlayerCoords(state, i);
 
 			if (DEBUG_LOG) {
 				System.out.println("doReset, player " + i + " coords: " + coords[0] + "," + coords[1]);
@@ -385,17 +478,17 @@ public class Arbiter implements IThinkingCompleteCallback {
 		}
 
 		if (playerConfiguration.isComputerPlayer(activePlayerNumber)) {
-			players.get(activePlayerNumber).doAiThinking();
-
-			// Start the AI thinking
-			final IAsyncAI ai = this.ai.get(activePlayerNumber);
-			if (ai == null) {
-				throw new IllegalStateException("Arbiter::?;no_ai_exists");
-			}
-			ai.startThinking(state, this);
+			startAiThinking();
 		} else {
 			// Notify active player that it is their turn
 			players.get(activePlayerNumber).doPendingMove();
+
+			// Let the computer players think ahead while the human decides
+			if (pondering) {
+				for (final IAsyncAI ai : this.ai.values()) {
+					ai.startPondering(state);
+				}
+			}
 		}
 	}
 
@@ -467,6 +560,18 @@ public class Arbiter implements IThinkingCompleteCallback {
 		return winners;
 	}
 
+	/**
+	 * Determine the square index of a logical tile component in the current game state.
+	 * 
+	 * @param tile
+	 *            The logical tile component.
+	 * @return The tile's square index.
+	 */
+	private int getSquare(final ITile tile) {
+		final byte[] coords = tile.getCoords();
+		return GameState.getSquare(state, coords[0], coords[1]);
+	}
+
 	/**
 	 * Find the logical tile component that relates to the given coordinates.
 	 * 
@@ -0,0 +1,190 @@
+package com.maycontainsoftware.partition.gamestate;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The shared execution service for AI players. Rather than each AI turn starting a new thread, turns are run on a
+ * small, fixed set of threads that is kept alive between turns, so that games between computer players and the demo
+ * boards don't churn through threads, and so that per-thread storage such as the SearchArena stays warm. Any turns
+ * beyond the number of threads wait in a queue.
+ * 
+ * AI players that share out the work of a turn between threads do so on a second small, fixed set of helper threads.
+ * The thread thinking about the turn always does its own share of the work, so it never has to wait for helper tasks
+ * that have not started - those are simply withdrawn once the turn is decided. Between them, the two sets of threads
+ * bound the number of threads the AI ever uses, however many AI players are thinking, and helper threads keep their
+ * per-thread storage warm from one turn to the next just as turn threads do.
+ * 
+ * AI threads are daemon threads, so never hold up application exit, and run at reduced priority, so that rendering
+ * stays smooth while the AI is thinking.
+ * 
+ * The services are started on first use, and must be shut down when the application is disposed of.
+ * 
+ * @author Charlie
+ */
+public final class AIExecutor {
+
+	/** Tag for logging purposes. */
+	public static final String TAG = AIExecutor.class.getName();
+
+	/** The maximum number of AI turns running at once. */
+	private static final int MAXIMUM_THREADS = 2;
+
+	/** The maximum number of helper threads, shared by all AI turns. */
+	private static final int MAXIMUM_HELPER_THREADS = 3;
+
+	/** The priority of AI threads. */
+	private static final int PRIORITY = Thread.NORM_PRIORITY - 1;
+
+	/** The number of threads created so far, for naming purposes. */
+	private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+	/** The factory for AI threads. */
+	private static final ThreadFactory FACTORY = new ThreadFactory() {
+		@Override
+		public Thread newThread(final Runnable runnable) {
+			return AIExecutor.newThread(runnable, TAG + "[" + THREAD_COUNT.getAndIncrement() + "]");
+		}
+	};
+
+	/** The factory for helper threads. */
+	private static final ThreadFactory HELPER_FACTORY = new ThreadFactory() {
+		@Override
+		public Thread newThread(final Runnable runnable) {
+			return AIExecutor.newThread(runnable, TAG + "[helper-" + THREAD_COUNT.getAndIncrement() + "]");
+		}
+	};
+
+	/** The execution service for turns, or null if not currently running. */
+	private static ExecutorService executor;
+
+	/** The execution service for helper tasks, or null if not currently running. */
+	private static ThreadPoolExecutor helpers;
+
+	/** This class is not to be instantiated. */
+	private AIExecutor() {
+	}
+
+	/**
+	 * Run a task on an AI thread.
+	 * 
+	 * @param task
+	 *            The task.
+	 */
+	public static synchronized void execute(final Runnable task) {
+		if (executor == null) {
+			final int threads = Math.max(1, Math.min(MAXIMUM_THREADS, Runtime.getRuntime().availableProcessors()));
+			executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+					new LinkedBlockingQueue<Runnable>(), FACTORY);
+		}
+		executor.execute(task);
+	}
+
+	/**
+	 * @return The number of helper threads. There is no point in sharing the work of a turn between more than this many
+	 *         helper tasks, plus the thread thinking about the turn.
+	 */
+	static int getHelperThreads() {
+		return Math.max(1, Math.min(MAXIMUM_HELPER_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+	}
+
+	/**
+	 * Run a task on a helper thread. The thread submitting the task must later call finish, whether or not it needs the
+	 * task's results.
+	 * 
+	 * @param task
+	 *            The task.
+	 * @return The pending result of the task, to be passed to finish.
+	 */
+	static synchronized Future<?> help(final Runnable task) {
+		if (helpers == null) {
+			final int threads = getHelperThreads();
+			helpers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+					new LinkedBlockingQueue<Runnable>(), HELPER_FACTORY);
+		}
+		return helpers.submit(task);
+	}
+
+	/**
+	 * Finish with a helper task. A task that has not started yet is withdrawn, and never runs; otherwise, this waits
+	 * for the task to complete. Running tasks share storage with the thread that submitted them, so are always waited
+	 * for, even if the waiting thread is interrupted; the interrupt is passed on once the task is done.
+	 * 
+	 * @param future
+	 *            The pending result of the task, as returned by help.
+	 * @return True if the task ran to completion, or false if it was withdrawn.
+	 */
+	static boolean finish(final Future<?> future) {
+		synchronized (AIExecutor.class) {
+			if (helpers != null && helpers.remove((Runnable) future)) {
+				return false;
+			}
+		}
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					future.get();
+					return true;
+				} catch (InterruptedException e) {
+					// Keep waiting - helper tasks stop of their own accord once their turn is decided or abandoned
+					interrupted = true;
+				} catch (CancellationException e) {
+					// Abandoned when the service was shut down
+					return false;
+				} catch (ExecutionException e) {
+					throw new IllegalStateException(TAG + "::finish;task_failed", e.getCause());
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Shut down the execution services. Queued turns and helper tasks are abandoned, and running ones are interrupted.
+	 * The services will be started again if another task is executed.
+	 */
+	public static synchronized void shutdown() {
+		if (executor != null) {
+			// Cancel abandoned turns, so that nothing waits for them
+			for (final Runnable task : executor.shutdownNow()) {
+				if (task instanceof Future) {
+					((Future<?>) task).cancel(false);
+				}
+			}
+			executor = null;
+		}
+		if (helpers != null) {
+			for (final Runnable task : helpers.shutdownNow()) {
+				((Future<?>) task).cancel(false);
+			}
+			helpers = null;
+		}
+	}
+
+	/**
+	 * Create a thread suitable for AI work, which is a daemon thread of reduced priority. The thread is not started.
+	 * 
+	 * @param runnable
+	 *            The work for the thread.
+	 * @param name
+	 *            The thread's name.
+	 * @return The new thread.
+	 */
+	private static Thread newThread(final Runnable runnable, final String name) {
+		final Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		thread.setPriority(PRIORITY);
+		return thread;
+	}
+}
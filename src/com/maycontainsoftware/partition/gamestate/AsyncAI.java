@@ -1,43 +1,150 @@
 package com.maycontainsoftware.partition.gamestate;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
- * Concrete implementation of IAsyncAI, which executes the AI logic in a separate thread.
+ * Concrete implementation of IAsyncAI, which executes the AI logic on a separate thread, provided by the AIExecutor.
+ * 
+ * Each request to think is numbered. Cancelling, or making a new request, moves the number on, which subclasses notice
+ * by polling isCancelled() and abandoning their work. Requests for the same AI run one at a time, so an abandoned
+ * request never overlaps the next, and the callback is only notified for requests that ran to completion.
+ * 
+ * Results are published as immutable TurnDecisions, so they can be read safely from any thread.
+ * 
+ * Pondering is a request like any other, except that it calls doPondering and produces no result. Subclasses that keep
+ * state between turns may override doPondering to warm it up; by default pondering does nothing.
  * 
  * @author Charlie
  */
 public abstract class AsyncAI implements IAsyncAI {
 
-	/** The chosen move, as a two-byte array. */
+	/** The chosen move, as a two-byte array. Set by subclasses. */
 	protected byte[] move;
 
-	/** The chosen move, as a two-byte array. */
+	/** The chosen shoot, as a two-byte array. Set by subclasses. */
 	protected byte[] shoot;
 
+	/** The number of the most recent request, or cancellation. */
+	private final AtomicInteger latestRequest = new AtomicInteger();
+
+	/** The number of the request currently being thought about. */
+	private volatile int thinkingRequest;
+
+	/** The listener for the request currently being thought about, if any. */
+	private volatile IThinkingProgressListener progressListener;
+
+	/** The best turn reported so far for the request currently being thought about, if any. */
+	private volatile TurnDecision bestSoFar;
+
+	/** The result of the most recently completed request. */
+	private volatile TurnDecision decision;
+
 	@Override
 	public final byte[] getMove() {
-		return move;
+		final TurnDecision decision = this.decision;
+		return decision == null ? null : decision.getMove();
 	}
 
 	@Override
 	public final byte[] getShoot() {
-		return shoot;
+		final TurnDecision decision = this.decision;
+		return decision == null ? null : decision.getShoot();
 	}
 
 	@Override
-	public final void startThinking(final GameState state, final IThinkingCompleteCallback callback) {
+	public final void startThinking(final GameState state, final TurnBudget budget, final int generation,
+			final IThinkingCompleteCallback callback) {
+		submit(state, budget, false, generation, callback, null);
+	}
 
-		// Execute the AI logic in a new thread
-		new Thread() {
-			public void run() {
+	@Override
+	public final Future<TurnDecision> think(final GameState state, final TurnBudget budget,
+			final IThinkingProgressListener listener) {
+		return submit(state, budget, false, 0, null, listener);
+	}
 
-				// Allow subclass to think
-				doThinking(state);
+	@Override
+	public final void startPondering(final GameState state) {
+		submit(state, null, true, 0, null, null);
+	}
 
-				// Notify the callback that thinking is complete
-				callback.thinkingComplete();
+	@Override
+	public final void cancel() {
+		latestRequest.incrementAndGet();
+	}
 
-			};
-		}.start();
+	@Override
+	public final TurnDecision getBestSoFar() {
+		return bestSoFar;
+	}
+
+	/**
+	 * Number a new request, which abandons any earlier one, and execute it on one of the shared AI threads.
+	 * 
+	 * @param state
+	 *            The current game state.
+	 * @param budget
+	 *            The time the AI may spend, or null if pondering.
+	 * @param ponder
+	 *            Whether to ponder rather than think.
+	 * @param generation
+	 *            The number to pass back to the callback.
+	 * @param callback
+	 *            The callback to notify when thinking is complete, or null.
+	 * @param listener
+	 *            The listener to notify of progress, or null.
+	 * @return The result of the request.
+	 */
+	private Future<TurnDecision> submit(final GameState state, final TurnBudget budget, final boolean ponder,
+			final int generation, final IThinkingCompleteCallback callback, final IThinkingProgressListener listener) {
+		final Request request = new Request(new Thinking(state, budget, ponder, latestRequest.incrementAndGet(),
+				listener), generation, callback);
+		AIExecutor.execute(request);
+		return request;
+	}
+
+	/**
+	 * Check whether the current request has been abandoned. Subclasses should poll this regularly while thinking, and
+	 * return promptly once it returns true, without needing to set a move and shoot.
+	 * 
+	 * @return True if the current request has been cancelled or replaced.
+	 */
+	protected final boolean isCancelled() {
+		return latestRequest.get() != thinkingRequest;
+	}
+
+	/**
+	 * Report the best turn found so far. Subclasses that improve their choice over time should call this whenever they
+	 * do, so that it is available from getBestSoFar and is passed on to any progress listener. May be called from any
+	 * thread working on the current request.
+	 * 
+	 * @param state
+	 *            The game state being thought about.
+	 * @param moveSquare
+	 *            The best move so far, as a square index.
+	 * @param shootSquare
+	 *            The best shoot so far, as a square index.
+	 * @param depth
+	 *            The number of turns searched ahead.
+	 * @param nodes
+	 *            The number of positions searched.
+	 */
+	protected final void reportProgress(final GameState state, final int moveSquare, final int shootSquare,
+			final int depth, final long nodes) {
+		if (isCancelled()) {
+			return;
+		}
+		final TurnDecision progress = new TurnDecision(GameState.getCoords(state, moveSquare), GameState.getCoords(
+				state, shootSquare), depth, nodes);
+		bestSoFar = progress;
+		final IThinkingProgressListener listener = progressListener;
+		if (listener != null) {
+			listener.progress(progress);
+		}
 	}
 
 	/**
@@ -46,6 +153,155 @@ public abstract class AsyncAI implements IAsyncAI {
 	 * 
 	 * @param state
 	 *            The current game state.
+	 * @param budget
+	 *            The time that may be spent. Thinking should aim to finish by the soft limit, and must finish by the
+	 *            hard limit.
 	 */
-	protected abstract void doThinking(final GameState state);
+	protected abstract void doThinking(final GameState state, final TurnBudget budget);
+
+	/**
+	 * Method that may be overridden by subclasses to think about a position in which another player is to move, in
+	 * preparation for this player's next turn. Pondering should continue until isCancelled() returns true, or until
+	 * there is nothing more to be gained. The default implementation does nothing.
+	 * 
+	 * @param state
+	 *            A game state, awaiting a move by another player.
+	 */
+	protected void doPondering(final GameState state) {
+	}
+
+	/**
+	 * The work of a single request: thinking about a game state, and publishing the result.
+	 * 
+	 * @author Charlie
+	 */
+	private final class Thinking implements Callable<TurnDecision> {
+
+		/** The game state to think about. */
+		private final GameState state;
+
+		/** The time that may be spent, or null if pondering. */
+		private final TurnBudget budget;
+
+		/** Whether to ponder rather than think. */
+		private final boolean ponder;
+
+		/** The request number. */
+		private final int number;
+
+		/** The listener to notify of progress, or null. */
+		private final IThinkingProgressListener listener;
+
+		public Thinking(final GameState state, final TurnBudget budget, final boolean ponder, final int number,
+				final IThinkingProgressListener listener) {
+			this.state = state;
+			this.budget = budget;
+			this.ponder = ponder;
+			this.number = number;
+			this.listener = listener;
+		}
+
+		/**
+		 * @return The decision, or null if the request was abandoned or was only pondering.
+		 */
+		@Override
+		public TurnDecision call() {
+			synchronized (AsyncAI.this) {
+
+				thinkingRequest = number;
+				bestSoFar = null;
+				if (isCancelled()) {
+					// Abandoned before it started
+					return null;
+				}
+
+				if (ponder) {
+					// Allow subclass to ponder - there's no result
+					doPondering(state);
+					return null;
+				}
+
+				// Allow subclass to think
+				progressListener = listener;
+				try {
+					doThinking(state, budget);
+				} finally {
+					progressListener = null;
+				}
+
+				if (isCancelled()) {
+					// Abandoned - nobody is interested in the result
+					return null;
+				}
+
+				// Publish the result, along with the search effort from the last progress report
+				final TurnDecision best = bestSoFar;
+				decision = best == null ? new TurnDecision(move, shoot, 0, 0) : new TurnDecision(move, shoot,
+						best.getDepth(), best.getNodes());
+				return decision;
+			}
+		}
+	}
+
+	/**
+	 * A request to think, as executed on an AI thread and returned to callers as a Future. Cancelling the Future
+	 * abandons the thinking, unless a later request has already done so. Thinking always stops cooperatively, so
+	 * threads are never interrupted.
+	 * 
+	 * @author Charlie
+	 */
+	private final class Request extends FutureTask<TurnDecision> {
+
+		/** The request number. */
+		private final int number;
+
+		/** The number to pass back to the callback. */
+		private final int generation;
+
+		/** The callback to notify when thinking is complete, or null. */
+		private final IThinkingCompleteCallback callback;
+
+		public Request(final Thinking thinking, final int generation, final IThinkingCompleteCallback callback) {
+			super(thinking);
+			this.number = thinking.number;
+			this.generation = generation;
+			this.callback = callback;
+		}
+
+		@Override
+		public boolean cancel(final boolean mayInterruptIfRunning) {
+			latestRequest.compareAndSet(number, number + 1);
+			return super.cancel(false);
+		}
+
+		@Override
+		protected void set(final TurnDecision result) {
+			if (result == null) {
+				// The thinking was abandoned
+				super.cancel(false);
+			} else {
+				super.set(result);
+			}
+		}
+
+		@Override
+		protected void done() {
+			if (callback == null || isCancelled()) {
+				return;
+			}
+			try {
+				get();
+			} catch (InterruptedException e) {
+				// Can't happen - the request is already done
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				// Don't let failures pass unnoticed when nobody is holding the Future
+				throw new IllegalStateException("AsyncAI::done;thinking_failed", e.getCause());
+			}
+
+			// Notify the callback that thinking is complete
+			callback.thinkingComplete(generation);
+		}
+	}
 }
@@ -0,0 +1,181 @@
+package com.maycontainsoftware.partition.gamestate;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Precomputed, immutable tables describing the shape of a board: for each square, the indices of its neighbours and the
+ * squares along each of its eight rays, stored as slices of flat int arrays. These depend only on the number of columns
+ * and rows, so one instance is built per board shape and shared by every GameState on a board of that shape. Move
+ * generation and flood filling can then walk these arrays directly, with no per-step bounds arithmetic.
+ * 
+ * @author Charlie
+ */
+public final class BoardGeometry {
+
+	/** Deltas to apply to a coordinate to locate surrounding tiles, as { column, row }, in ray order. */
+	static final byte[][] DIRECTIONS = new byte[][] {
+	/* SW */{ -1, -1 },
+	/* W */{ -1, 0 },
+	/* NW */{ -1, 1 },
+	/* N */{ 0, 1 },
+	/* NE */{ 1, 1 },
+	/* E */{ 1, 0 },
+	/* SE */{ 1, -1 },
+	/* S */{ 0, -1 }, };
+
+	/** The number of ray directions from each square. */
+	static final int NUMBER_OF_DIRECTIONS = DIRECTIONS.length;
+
+	/** Geometries built so far, keyed by (columns << 8 | rows). */
+	private static final Map<Integer, BoardGeometry> CACHE = new HashMap<Integer, BoardGeometry>();
+
+	/** The number of columns on the board. */
+	final int columns;
+
+	/** The number of rows on the board. */
+	final int rows;
+
+	/** The number of squares on the board. */
+	final int squares;
+
+	/** The number of longs needed to hold a bitboard of the board. */
+	final int words;
+
+	/** The neighbours of all squares. The neighbours of square s are at [neighbourStart[s], neighbourStart[s + 1]). */
+	final int[] neighbours;
+
+	/** Start offsets into neighbours, with one extra element holding the total length. */
+	final int[] neighbourStart;
+
+	/**
+	 * The rays of all squares, each ordered outwards from the square. The ray from square s in direction d is at
+	 * [rayStart[s * 8 + d], rayStart[s * 8 + d + 1]).
+	 */
+	final int[] rays;
+
+	/** Start offsets into rays, with one extra element holding the total length. */
+	final int[] rayStart;
+
+	/** For single-word boards, the squares that have a neighbour to the west. */
+	final long hasWest;
+
+	/** For single-word boards, the squares that have a neighbour to the east. */
+	final long hasEast;
+
+	/**
+	 * Get the geometry for a board of the specified size, building it if this is the first board of that size.
+	 * 
+	 * @param columns
+	 *            The number of columns.
+	 * @param rows
+	 *            The number of rows.
+	 * @return The shared geometry.
+	 */
+	public static BoardGeometry forSize(final int columns, final int rows) {
+		final Integer key = columns << 8 | rows;
+		synchronized (CACHE) {
+			BoardGeometry geometry = CACHE.get(key);
+			if (geometry == null) {
+				geometry = new BoardGeometry(columns, rows);
+				CACHE.put(key, geometry);
+			}
+			return geometry;
+		}
+	}
+
+	/**
+	 * Build the tables for a board.
+	 * 
+	 * @param columns
+	 *            The number of columns.
+	 * @param rows
+	 *            The number of rows.
+	 */
+	private BoardGeometry(final int columns, final int rows) {
+		this.columns = columns;
+		this.rows = rows;
+		this.squares = columns * rows;
+		this.words = (squares + 63) >>> 6;
+
+		// Neighbours
+		neighbourStart = new int[squares + 1];
+		final int[] neighbourBuffer = new int[squares * NUMBER_OF_DIRECTIONS];
+		int n = 0;
+		for (int s = 0; s < squares; s++) {
+			neighbourStart[s] = n;
+			for (final byte[] delta : DIRECTIONS) {
+				final int c = s % columns + delta[0];
+				final int r = s / columns + delta[1];
+				if (c >= 0 && c < columns && r >= 0 && r < rows) {
+					neighbourBuffer[n++] = r * columns + c;
+				}
+			}
+		}
+		neighbourStart[squares] = n;
+		neighbours = new int[n];
+		System.arraycopy(neighbourBuffer, 0, neighbours, 0, n);
+
+		// Rays - first count, then fill
+		rayStart = new int[squares * NUMBER_OF_DIRECTIONS + 1];
+		int length = 0;
+		for (int s = 0; s < squares; s++) {
+			for (int d = 0; d < NUMBER_OF_DIRECTIONS; d++) {
+				rayStart[s * NUMBER_OF_DIRECTIONS + d] = length;
+				length += rayLength(s, d);
+			}
+		}
+		rayStart[squares * NUMBER_OF_DIRECTIONS] = length;
+		rays = new int[length];
+		for (int s = 0; s < squares; s++) {
+			for (int d = 0; d < NUMBER_OF_DIRECTIONS; d++) {
+				int i = rayStart[s * NUMBER_OF_DIRECTIONS + d];
+				int c = s % columns + DIRECTIONS[d][0];
+				int r = s / columns + DIRECTIONS[d][1];
+				while (c >= 0 && c < columns && r >= 0 && r < rows) {
+					rays[i++] = r * columns + c;
+					c += DIRECTIONS[d][0];
+					r += DIRECTIONS[d][1];
+				}
+			}
+		}
+
+		// Column masks for single-word flood fill
+		long firstColumn = 0L;
+		if (words == 1) {
+			for (int r = 0; r < rows; r++) {
+				firstColumn |= 1L << (r * columns);
+			}
+		}
+		hasWest = ~firstColumn;
+		hasEast = ~(firstColumn << (columns - 1));
+	}
+
+	/**
+	 * @param direction
+	 *            A direction index.
+	 * @return The index of the direction pointing the opposite way.
+	 */
+	static int opposite(final int direction) {
+		return (direction + NUMBER_OF_DIRECTIONS / 2) % NUMBER_OF_DIRECTIONS;
+	}
+
+	/**
+	 * @param square
+	 *            A square index.
+	 * @param direction
+	 *            A direction index.
+	 * @return The number of squares between the square and the edge of the board in the specified direction.
+	 */
+	private int rayLength(final int square, final int direction) {
+		int length = 0;
+		int c = square % columns + DIRECTIONS[direction][0];
+		int r = square / columns + DIRECTIONS[direction][1];
+		while (c >= 0 && c < columns && r >= 0 && r < rows) {
+			length++;
+			c += DIRECTIONS[direction][0];
+			r += DIRECTIONS[direction][1];
+		}
+		return length;
+	}
+}
@@ -0,0 +1,314 @@
+package com.maycontainsoftware.partition.gamestate;
+
+/**
+ * Tracks the region of the board reachable by each player as a game progresses. Tiles are only ever disabled, so
+ * regions only ever shrink, and most shoots do not change which tiles are connected at all. The tracker takes
+ * advantage of this to answer "are the players still connected?" and "how large is this player's region?" without
+ * flood filling after every shoot.
+ * 
+ * When a tile is shot, any region containing it loses that tile. If the tile's remaining enabled neighbours are all
+ * connected to one another around the tile itself, any path through the tile can be rerouted around it, so removing it
+ * cannot split a region and the update is O(1). Only otherwise are the affected regions filled again. Moves never
+ * change regions, as a player can only move within its own region.
+ * 
+ * Each shoot is recorded so that it can be rolled back, allowing a tracker to follow a search path through make and
+ * unmake. Storage for the rollback log grows as required, so after warm-up no allocation is performed.
+ * 
+ * @author Charlie
+ */
+public class ConnectivityTracker {
+
+	/** Offsets of the eight neighbours of a square, in order around the square: N, NE, E, SE, S, SW, W, NW. */
+	private static final byte[][] RING = new byte[][] {
+	/* N */{ 0, 1 },
+	/* NE */{ 1, 1 },
+	/* E */{ 1, 0 },
+	/* SE */{ 1, -1 },
+	/* S */{ 0, -1 },
+	/* SW */{ -1, -1 },
+	/* W */{ -1, 0 },
+	/* NW */{ -1, 1 }, };
+
+	/** The number of players. */
+	private final int numberOfPlayers;
+
+	/** The number of words in a bitboard. */
+	private final int words;
+
+	/** The region reachable by each player, as a bitboard. */
+	private final long[][] regions;
+
+	/** The number of tiles in each player's region. */
+	private final int[] regionSize;
+
+	/** The number of shoots recorded and not rolled back. */
+	private int depth;
+
+	/** For each recorded shoot, the square shot. */
+	private int[] logSquare;
+
+	/** For each recorded shoot, a bitmask of the players whose regions contained the square. */
+	private int[] logAffected;
+
+	/** For each recorded shoot, whether the affected regions had to be filled again. */
+	private boolean[] logRefilled;
+
+	/** For each recorded shoot that required a refill, the regions as they were before the shoot. */
+	private long[] logRegions;
+
+	/** For each recorded shoot that required a refill, the region sizes as they were before the shoot. */
+	private int[] logSizes;
+
+	/**
+	 * Construct a new tracker, and initialise it from a game state.
+	 * 
+	 * @param state
+	 *            The game state.
+	 */
+	public ConnectivityTracker(final GameState state) {
+		numberOfPlayers = GameState.getNumberOfPlayers(state);
+		words = state.tiles.length;
+		regions = new long[numberOfPlayers][words];
+		regionSize = new int[numberOfPlayers];
+		allocateLog(16);
+		reset(state);
+	}
+
+	/**
+	 * Reinitialise the tracker from a game state, discarding any recorded shoots.
+	 * 
+	 * @param state
+	 *            The game state, which must be on the same board as the one the tracker was constructed with.
+	 */
+	public void reset(final GameState state) {
+		depth = 0;
+		fillRegions(state, (1 << numberOfPlayers) - 1);
+	}
+
+	/**
+	 * Record that a tile has been shot.
+	 * 
+	 * @param state
+	 *            The game state after the shoot has been applied.
+	 * @param square
+	 *            The square index of the tile shot.
+	 */
+	public void shoot(final GameState state, final int square) {
+
+		if (depth == logSquare.length) {
+			growLog();
+		}
+
+		// Which regions contain the tile?
+		int affected = 0;
+		for (int p = 0; p < numberOfPlayers; p++) {
+			if (GameState.isBitSet(regions[p], square)) {
+				affected |= 1 << p;
+			}
+		}
+
+		logSquare[depth] = square;
+		logAffected[depth] = affected;
+
+		if (affected == 0 || isSimple(state, square)) {
+			// Connectivity is unchanged - just remove the tile
+			logRefilled[depth] = false;
+			for (int p = 0; p < numberOfPlayers; p++) {
+				if ((affected & (1 << p)) != 0) {
+					GameState.clearBit(regions[p], square);
+					regionSize[p]--;
+				}
+			}
+		} else {
+			// The tile may have split a region - remember the affected regions, then fill them again
+			logRefilled[depth] = true;
+			for (int p = 0; p < numberOfPlayers; p++) {
+				System.arraycopy(regions[p], 0, logRegions, (depth * numberOfPlayers + p) * words, words);
+				logSizes[depth * numberOfPlayers + p] = regionSize[p];
+			}
+			fillRegions(state, affected);
+		}
+
+		depth++;
+	}
+
+	/** Roll back the most recently recorded shoot. */
+	public void rollback() {
+		if (depth == 0) {
+			throw new IllegalStateException("ConnectivityTracker::rollback;no_shoots");
+		}
+		depth--;
+		final int affected = logAffected[depth];
+		if (logRefilled[depth]) {
+			for (int p = 0; p < numberOfPlayers; p++) {
+				System.arraycopy(logRegions, (depth * numberOfPlayers + p) * words, regions[p], 0, words);
+				regionSize[p] = logSizes[depth * numberOfPlayers + p];
+			}
+		} else {
+			for (int p = 0; p < numberOfPlayers; p++) {
+				if ((affected & (1 << p)) != 0) {
+					GameState.setBit(regions[p], logSquare[depth]);
+					regionSize[p]++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param playerIndex
+	 *            The player index.
+	 * @param otherPlayerIndex
+	 *            Another player index.
+	 * @param state
+	 *            The current game state, from which player squares are taken.
+	 * @return Whether the two players can reach each other.
+	 */
+	public boolean areConnected(final GameState state, final int playerIndex, final int otherPlayerIndex) {
+		return GameState.isBitSet(regions[playerIndex], state.playerSquares[otherPlayerIndex]);
+	}
+
+	/**
+	 * @param state
+	 *            The current game state, from which player squares are taken.
+	 * @return Whether any two players can still reach each other.
+	 */
+	public boolean arePlayersConnected(final GameState state) {
+		for (int p = 0; p < numberOfPlayers - 1; p++) {
+			for (int q = p + 1; q < numberOfPlayers; q++) {
+				if (areConnected(state, p, q)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Whether or not the game is over, as per GameState.isGameOver.
+	 * 
+	 * @param state
+	 *            The current game state, from which player squares are taken.
+	 * @return True if the game is over, false otherwise.
+	 */
+	public boolean isGameOver(final GameState state) {
+		return numberOfPlayers > 1 && !arePlayersConnected(state);
+	}
+
+	/**
+	 * @param playerIndex
+	 *            The player index.
+	 * @return The number of tiles in the player's region, including the one the player is standing on.
+	 */
+	public int getRegionSize(final int playerIndex) {
+		return regionSize[playerIndex];
+	}
+
+	/**
+	 * Fill the regions of a set of players from scratch. Players found to share a region are only filled once.
+	 * 
+	 * @param state
+	 *            The game state.
+	 * @param players
+	 *            Bitmask of the players whose regions to fill.
+	 */
+	private void fillRegions(final GameState state, final int players) {
+		for (int p = 0; p < numberOfPlayers; p++) {
+			if ((players & (1 << p)) == 0) {
+				continue;
+			}
+			// Does an already-filled player share this region?
+			int shared = -1;
+			for (int q = 0; q < p && shared == -1; q++) {
+				if ((players & (1 << q)) != 0 && GameState.isBitSet(regions[q], state.playerSquares[p])) {
+					shared = q;
+				}
+			}
+			if (shared != -1) {
+				System.arraycopy(regions[shared], 0, regions[p], 0, words);
+				regionSize[p] = regionSize[shared];
+			} else {
+				regionSize[p] = GameState.fillRegion(state, state.playerSquares[p], regions[p]);
+			}
+		}
+	}
+
+	/**
+	 * Whether a disabled tile was a "simple" one: one whose enabled neighbours are all connected to each other using
+	 * only the eight squares around it. Removing such a tile cannot disconnect anything.
+	 * 
+	 * @param state
+	 *            The game state, with the tile disabled.
+	 * @param square
+	 *            The square index of the tile.
+	 * @return True if the tile is simple, false if removing it may have split its region.
+	 */
+	private static boolean isSimple(final GameState state, final int square) {
+		final int columns = GameState.getNumberOfColumns(state);
+		final int rows = GameState.getNumberOfRows(state);
+		final int c = square % columns;
+		final int r = square / columns;
+
+		// Which of the ring squares are enabled?
+		int ring = 0;
+		for (int i = 0; i < RING.length; i++) {
+			final int newC = c + RING[i][0];
+			final int newR = r + RING[i][1];
+			if (newC >= 0 && newC < columns && newR >= 0 && newR < rows
+					&& GameState.isBitSet(state.tiles, newR * columns + newC)) {
+				ring |= 1 << i;
+			}
+		}
+
+		// Count groups of enabled ring squares. Consecutive ring squares are always adjacent, and so are orthogonal
+		// squares either side of a disabled corner (e.g. N and E, around NE).
+		int groups = 0;
+		for (int i = 0; i < RING.length; i++) {
+			final int previous = (i + RING.length - 1) % RING.length;
+			final boolean enabled = (ring & (1 << i)) != 0;
+			final boolean previousEnabled = (ring & (1 << previous)) != 0;
+			if (enabled && !previousEnabled) {
+				// Start of a run - unless it's an orthogonal square joined to the run before the corner
+				final int beforeCorner = (i + RING.length - 2) % RING.length;
+				final boolean orthogonal = i % 2 == 0;
+				if (!(orthogonal && (ring & (1 << beforeCorner)) != 0)) {
+					groups++;
+				}
+			}
+		}
+		if (groups == 0 && ring != 0) {
+			// Every run joined to the one before it, all the way around - a single group
+			groups = 1;
+		}
+
+		return groups <= 1;
+	}
+
+	/**
+	 * Allocate the rollback log.
+	 * 
+	 * @param capacity
+	 *            The number of shoots that can be recorded.
+	 */
+	private void allocateLog(final int capacity) {
+		logSquare = new int[capacity];
+		logAffected = new int[capacity];
+		logRefilled = new boolean[capacity];
+		logRegions = new long[capacity * numberOfPlayers * words];
+		logSizes = new int[capacity * numberOfPlayers];
+	}
+
+	/** Double the capacity of the rollback log, preserving its contents. */
+	private void growLog() {
+		final int[] oldSquare = logSquare;
+		final int[] oldAffected = logAffected;
+		final boolean[] oldRefilled = logRefilled;
+		final long[] oldRegions = logRegions;
+		final int[] oldSizes = logSizes;
+		allocateLog(oldSquare.length * 2);
+		System.arraycopy(oldSquare, 0, logSquare, 0, oldSquare.length);
+		System.arraycopy(oldAffected, 0, logAffected, 0, oldAffected.length);
+		System.arraycopy(oldRefilled, 0, logRefilled, 0, oldRefilled.length);
+		System.arraycopy(oldRegions, 0, logRegions, 0, oldRegions.length);
+		System.arraycopy(oldSizes, 0, logSizes, 0, oldSizes.length);
+	}
+}
@@ -1,16 +1,16 @@
 package com.maycontainsoftware.partition.gamestate;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
 import java.util.Random;
-import java.util.Set;
 
 /**
  * An aggressive AI player. This player enumerates all possible moves, and picks a win if it is able to. Otherwise, it
  * tries to keep the game going by avoiding draws, stalemates and losses. When a choice is relevant, it aims to first
  * minimize the opponent's movement options, then maximize its own options.
  * 
+ * Turns are scored as they are generated, and only the best of each kind is retained, so memory use does not grow with
+ * the number of turns available. Looking only one turn ahead, this player always answers promptly, so ignores the time
+ * budget.
+ * 
  * @author Charlie
  */
 public class EvaluatingAsyncAI extends AsyncAI {
@@ -24,23 +24,23 @@ public class EvaluatingAsyncAI extends AsyncAI {
 	/** This player's player number. */
 	private final int playerNumber;
 
-	/** The chosen turn. */
-	private Turn chosenTurn;
+	/** Source of randomness for choosing between equally good turns. */
+	private final Random random = new Random();
 
-	/** Set of available winning turns. */
-	private Set<Turn> wins = new HashSet<Turn>();
+	/** Available winning turns. */
+	private final TurnReservoir wins = new TurnReservoir(random);
 
-	/** Set of available losing turns. */
-	private Set<Turn> losses = new HashSet<Turn>();
+	/** Available losing turns. */
+	private final TurnReservoir losses = new TurnReservoir(random);
 
-	/** Set of available drawn turns. */
-	private Set<Turn> draws = new HashSet<Turn>();
+	/** Available drawn turns. */
+	private final TurnReservoir draws = new TurnReservoir(random);
 
-	/** Set of available stalemate turns. */
-	private Set<Turn> stalemates = new HashSet<Turn>();
+	/** Available stalemate turns. */
+	private final TurnReservoir stalemates = new TurnReservoir(random);
 
-	/** Set of all other available turns. */
-	private Set<Turn> other = new HashSet<Turn>();
+	/** All other available turns, ranked. */
+	private final TurnReservoir other = new TurnReservoir(random);
 
 	/**
 	 * Construct a new AI player.
@@ -52,7 +52,7 @@ public class EvaluatingAsyncAI extends AsyncAI {
 		this.playerNumber = playerNumber;
 	}
 
-	/** Clear all sets of Turns, in preparation for calculating the next move/shoot pair. */
+	/** Clear all retained turns, in preparation for calculating the next move/shoot pair. */
 	private void preMoveSetup() {
 		wins.clear();
 		losses.clear();
@@ -62,7 +62,7 @@ public class EvaluatingAsyncAI extends AsyncAI {
 	}
 
 	@Override
-	protected void doThinking(GameState state) {
+	protected void doThinking(final GameState state, final TurnBudget budget) {
 
 		preMoveSetup();
 
@@ -78,279 +78,150 @@ public class EvaluatingAsyncAI extends AsyncAI {
 					+ state.currentPlayerIndex);
 		}
 
+		// Scratch storage, recycled from the thread's arena - a working copy of the state, through which moves and
+		// shoots are made and unmade, and a tracker of player mobility kept in step with it
+		final SearchArena arena = SearchArena.get(state);
+		final GameState working = arena.working(state);
+		final SearchArena.Frame frame = arena.frame(0);
+		final MoveList validMoves = frame.moves;
+		final MoveList validShoots = frame.shoots;
+		final UndoRecord moveUndo = frame.moveUndo;
+		final UndoRecord shootUndo = frame.shootUndo;
+		final Outcome outcome = arena.outcome();
+		final SeparatorAnalysis separators = frame.separators;
+		final MobilityTracker mobility = arena.mobility(state);
+
 		// Determine available moves
-		final Set<byte[]> validMoves = GameState.getValidMoves(state);
+		GameState.generateMoves(working, validMoves);
 
 		if (DEBUG_LOG) {
 			System.out.println(TAG + "::doThinking;validMoves.size=" + validMoves.size());
 		}
 
 		// Iterate through all possible moves
-		for (final byte[] move : validMoves) {
+		for (int m = 0; m < validMoves.size(); m++) {
+			if (isCancelled()) {
+				return;
+			}
 
-			// Determine the prospective new game state
-			final GameState stateAfterMove = GameState.apply(state, move);
+			final int move = validMoves.get(m);
+			final int from = working.playerSquares[playerNumber];
 
-			// Determine available shoots
-			final Set<byte[]> validShoots = GameState.getValidMoves(stateAfterMove);
+			// Make the move on the working state
+			GameState.make(working, move, moveUndo);
+			mobility.move(from, move);
+
+			// Determine available shoots, and which of them would end the game
+			GameState.generateMoves(working, validShoots);
+			separators.analyse(working);
 
 			if (DEBUG_LOG) {
-				System.out.println(TAG + "::doThinking;move[" + move[0] + "," + move[1] + "],validShoots.size="
-						+ validShoots.size());
+				System.out.println(TAG + "::doThinking;move[" + move + "],validShoots.size=" + validShoots.size());
 			}
 
 			// Iterate through all possible shoots, given the current move
-			for (final byte[] shoot : validShoots) {
+			for (int s = 0; s < validShoots.size(); s++) {
+				final int shoot = validShoots.get(s);
 
-				final GameState finalState = GameState.apply(stateAfterMove, shoot);
-				final Turn turn = new Turn(move, shoot, finalState);
+				// Make the shoot on the working state
+				GameState.make(working, shoot, shootUndo);
 
-				if (GameState.isStalemate(finalState)) {
+				switch (separators.classify(working, shoot, outcome)) {
+				case Outcome.STALEMATE:
 					// Stalemate
 					if (DEBUG_LOG) {
-						System.out.println(TAG + "::doThinking;move[" + move[0] + "," + move[1] + "],shoot[" + shoot[0]
-								+ "," + shoot[1] + "] is a stalemate");
+						System.out.println(TAG + "::doThinking;move[" + move + "],shoot[" + shoot + "] is a stalemate");
 					}
-					stalemates.add(turn);
-				} else if (GameState.isGameOver(finalState)) {
-					// Win, loss or draw
-					if (GameState.isDraw(finalState)) {
-						// Draw
-						if (DEBUG_LOG) {
-							System.out.println(TAG + "::doThinking;move[" + move[0] + "," + move[1] + "],shoot["
-									+ shoot[0] + "," + shoot[1] + "] is a draw");
-						}
-						draws.add(turn);
-					} else if (GameState.getWinningPlayer(finalState) == playerNumber) {
+					stalemates.offer(move, shoot, 0);
+					break;
+				case Outcome.DRAW:
+					// Draw
+					if (DEBUG_LOG) {
+						System.out.println(TAG + "::doThinking;move[" + move + "],shoot[" + shoot + "] is a draw");
+					}
+					draws.offer(move, shoot, 0);
+					break;
+				case Outcome.WIN:
+					if (outcome.getWinner() == playerNumber) {
 						// Win
 						if (DEBUG_LOG) {
-							System.out.println(TAG + "::doThinking;move[" + move[0] + "," + move[1] + "],shoot["
-									+ shoot[0] + "," + shoot[1] + "] is a win");
+							System.out.println(TAG + "::doThinking;move[" + move + "],shoot[" + shoot + "] is a win");
 						}
-						wins.add(turn);
+						wins.offer(move, shoot, 0);
 					} else {
 						// Loss
 						if (DEBUG_LOG) {
-							System.out.println(TAG + "::doThinking;move[" + move[0] + "," + move[1] + "],shoot["
-									+ shoot[0] + "," + shoot[1] + "] is a loss");
+							System.out.println(TAG + "::doThinking;move[" + move + "],shoot[" + shoot + "] is a loss");
 						}
-						losses.add(turn);
+						losses.offer(move, shoot, 0);
+					}
+					break;
+				default:
+					// Game continues - rank the turn as it stands, then discard it
+					mobility.shoot(shoot);
+					final int nextPlayerMoves = mobility.getMobility(working, working.currentPlayerIndex);
+					final int availablePersonalMoves = mobility.getMobility(working, playerNumber);
+					mobility.unshoot(shoot);
+
+					if (DEBUG_LOG) {
+						System.out.println(TAG + "::doThinking;move[" + move + "],shoot[" + shoot + "];nextPlayerMoves="
+								+ nextPlayerMoves + ",availablePersonalMoves=" + availablePersonalMoves);
 					}
-				} else {
-					// Game continues
-					other.add(turn);
+
+					other.offer(move, shoot, rank(nextPlayerMoves, availablePersonalMoves));
+					break;
 				}
+
+				// Restore the working state to its post-move state
+				GameState.unmake(working, shootUndo);
 			}
+
+			// Restore the working state to its original state
+			GameState.unmake(working, moveUndo);
+			mobility.unmove(from, move);
 		}
 
 		// Now need to pick a move/shoot pair
+		final TurnReservoir chosen;
 		if (!wins.isEmpty()) {
 			// Pick a random winning move - don't care which
-			chosenTurn = randomElement(wins);
+			chosen = wins;
 		} else if (!other.isEmpty()) {
 			// Pick the best move available
-			chosenTurn = pickBest(other);
+			chosen = other;
 		} else if (!draws.isEmpty()) {
 			// Pick a random drawn move - don't care which
-			chosenTurn = randomElement(draws);
+			chosen = draws;
 		} else if (!stalemates.isEmpty()) {
 			// Pick a random stalemate - don't care which
-			chosenTurn = randomElement(stalemates);
+			chosen = stalemates;
 		} else if (!losses.isEmpty()) {
 			// Pick a random losing move - don't care which
-			chosenTurn = randomElement(losses);
-		}
-
-		move = chosenTurn.move;
-		shoot = chosenTurn.shoot;
-	}
-
-	/**
-	 * Rank the turns in the given set and return the "best" turn present. Suitability is judged by minimizing the
-	 * number of moves available to the other player while maximizing the number of moves left available to the self.
-	 * 
-	 * @param set
-	 *            The set containing move/shoot pairs to pick from.
-	 * @return The best move from the set.
-	 * @throws IllegalArgumentException
-	 *             if the specified set is empty.
-	 */
-	private Turn pickBest(final Set<Turn> set) {
-
-		if (set.isEmpty()) {
-			throw new IllegalArgumentException(TAG + "::pickBest;empty");
+			chosen = losses;
+		} else {
+			throw new IllegalStateException(TAG + "[" + playerNumber + "]::doThinking;no_turns");
 		}
 
-		// Determine the turns most damaging to the other player
-		final Set<Turn> mostDamaging = pickMostDamaging(set);
-
 		if (DEBUG_LOG) {
-			System.out.println(TAG + "::pickBest: number of move/shoot pairs available: " + mostDamaging.size());
-		}
-
-		if (mostDamaging.size() == 1) {
-			// If there's only one option, just return it
-			return mostDamaging.iterator().next();
+			System.out.println(TAG + "::doThinking;chose one of " + chosen.getCount() + " turns");
 		}
 
-		// Out of the most damaging turns, determine the most personally beneficent
-		final Set<Turn> mostBeneficient = pickMostBeneficient(mostDamaging);
-
-		// Out of these, we're happy to pick any
-		return randomElement(mostBeneficient);
+		move = GameState.getCoords(state, chosen.getMove());
+		shoot = GameState.getCoords(state, chosen.getShoot());
 	}
 
 	/**
-	 * Pick the most move/shoot pairs most damaging to the next player.
+	 * Rank a turn that leaves the game ongoing. Suitability is judged first by minimizing the number of moves available
+	 * to the next player, then by maximizing the number of moves left available to the self. In a two-player game the
+	 * next player is the only opponent.
 	 * 
-	 * @param set
-	 *            The set of available turns.
-	 * @return A subset of the most damaging turns.
-	 * @throws IllegalArgumentException
-	 *             if the specified set is empty.
+	 * @param nextPlayerMoves
+	 *            The number of moves available to the next player after the turn.
+	 * @param availablePersonalMoves
+	 *            The number of moves available to this player after the turn.
+	 * @return The ranking key; higher is better.
 	 */
-	private final Set<Turn> pickMostDamaging(final Set<Turn> set) {
-
-		if (set.isEmpty()) {
-			throw new IllegalArgumentException(TAG + "::pickMostDamaging;empty");
-		}
-
-		// Map to contain (score) -> (turns with that score)
-		final Map<Integer, Set<Turn>> ranked = new HashMap<Integer, Set<Turn>>();
-
-		for (final Turn turn : set) {
-
-			// Evaluation is based purely on how well we limit the opponents options
-			// In actual fact, we only limit the *next player's* options, which for a two-player game is the same thing.
-			int nextPlayerMoves = GameState.getValidMoves(turn.endState).size();
-
-			if (ranked.containsKey(nextPlayerMoves)) {
-				ranked.get(nextPlayerMoves).add(turn);
-			} else {
-				final Set<Turn> newSet = new HashSet<Turn>();
-				newSet.add(turn);
-				ranked.put(nextPlayerMoves, newSet);
-			}
-		}
-
-		if (DEBUG_LOG) {
-			for (final Integer i : ranked.keySet()) {
-				System.out.println(TAG + "::pickMostDamaging;playerMoves=" + i + ",options=" + ranked.get(i).size());
-
-			}
-		}
-
-		// Work out which set of turns leave the opponent with the fewest possible move options
-
-		int minimumNextPlayerMoves = Integer.MAX_VALUE;
-		Set<Turn> mostDamagingSet = null;
-
-		for (int numberOfMoves : ranked.keySet()) {
-			if (numberOfMoves < minimumNextPlayerMoves) {
-				minimumNextPlayerMoves = numberOfMoves;
-				mostDamagingSet = ranked.get(numberOfMoves);
-			}
-		}
-
-		if (DEBUG_LOG) {
-			System.out.println(TAG + "::pickMostDamaging: Minimum next player moves: " + minimumNextPlayerMoves
-					+ ", number of options: " + mostDamagingSet.size());
-		}
-
-		return mostDamagingSet;
-	}
-
-	/**
-	 * Out of a set of move/shoot pairs, generate a subset containing just the most personally beneficent turns.
-	 * 
-	 * @param set
-	 *            The set of possible turns.
-	 * @return A set containing the most personally beneficent turns out of the specified set.
-	 * @throws IllegalArgumentException
-	 *             if the specified set is empty.
-	 */
-	private final Set<Turn> pickMostBeneficient(final Set<Turn> set) {
-
-		if (set.isEmpty()) {
-			throw new IllegalArgumentException(TAG + "::pickMostBeneficient;empty");
-		}
-
-		final Map<Integer, Set<Turn>> ranked = new HashMap<Integer, Set<Turn>>();
-
-		for (final Turn turn : set) {
-
-			int availablePersonalMoves = GameState.getValidMoves(turn.endState, playerNumber).size();
-
-			if (ranked.containsKey(availablePersonalMoves)) {
-				ranked.get(availablePersonalMoves).add(turn);
-			} else {
-				final Set<Turn> newSet = new HashSet<Turn>();
-				newSet.add(turn);
-				ranked.put(availablePersonalMoves, newSet);
-			}
-		}
-
-		// Work out a subset of turns which leaves the AI player with the most possible move options
-
-		int maximumPersonalMoves = -1;
-		Set<Turn> mostBeneficentSet = null;
-
-		for (int numberOfMoves : ranked.keySet()) {
-			if (numberOfMoves > maximumPersonalMoves) {
-				maximumPersonalMoves = numberOfMoves;
-				mostBeneficentSet = ranked.get(numberOfMoves);
-			}
-		}
-
-		if (DEBUG_LOG) {
-			System.out.println(TAG + "::pickMostBeneficient: Maximum personal moves: " + maximumPersonalMoves
-					+ ", number of options: " + mostBeneficentSet.size());
-		}
-
-		return mostBeneficentSet;
-	}
-
-	/**
-	 * Get a random element from a set of turns.
-	 * 
-	 * @param set
-	 *            A set of Turn objects.
-	 * @return A random element from the specified set.
-	 * @throws IllegalArgumentException
-	 *             if the specified set is empty.
-	 */
-	private Turn randomElement(final Set<Turn> set) {
-
-		if (set.isEmpty()) {
-			throw new IllegalArgumentException(TAG + "::randomElement;empty");
-		}
-
-		int random = new Random().nextInt(set.size());
-		int i = 0;
-		for (final Turn turn : set) {
-			if (i == random) {
-				return turn;
-			}
-			i++;
-		}
-
-		throw new RuntimeException(TAG + "::randomElement;no_more_elements");
-	}
-
-	/**
-	 * Simple class to hold move and shoot coordinates, plus resulting game states.
-	 * 
-	 * @author Charlie
-	 */
-	private static class Turn {
-		final byte[] move;
-		final byte[] shoot;
-		final GameState endState;
-
-		public Turn(final byte[] move, final byte[] shoot, final GameState endState) {
-			this.move = move;
-			this.shoot = shoot;
-			this.endState = endState;
-		}
+	private static long rank(final int nextPlayerMoves, final int availablePersonalMoves) {
+		return ((long) -nextPlayerMoves << 32) + availablePersonalMoves;
 	}
 }
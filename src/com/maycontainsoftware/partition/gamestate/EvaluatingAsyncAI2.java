@@ -1,16 +1,19 @@
 package com.maycontainsoftware.partition.gamestate;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
 import java.util.Random;
-import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * An aggressive AI player. This player enumerates all possible moves, and picks a win if it is able to. Otherwise, it
  * tries to keep the game going by avoiding draws, stalemates and losses. When a choice is relevant, it aims to minimize
  * the opponent's movement options and maximize its own options.
  * 
+ * Candidate turns are evaluated in parallel, split by move: the thinking thread and tasks on the AIExecutor's helper
+ * threads take moves one at a time until none remain, each using its own scratch state. Turns are scored as they are
+ * generated, and only the best of each kind is retained, so memory use does not grow with the number of turns
+ * available. Looking only one turn ahead, this player always answers promptly, so ignores the time budget.
+ * 
  * @author Charlie
  */
 public class EvaluatingAsyncAI2 extends AsyncAI {
@@ -24,23 +27,8 @@ public class EvaluatingAsyncAI2 extends AsyncAI {
 	/** This player's player number. */
 	private final int playerNumber;
 
-	/** The chosen turn. */
-	private Turn chosenTurn;
-
-	/** Set of available winning turns. */
-	private Set<Turn> wins = new HashSet<Turn>();
-
-	/** Set of available losing turns. */
-	private Set<Turn> losses = new HashSet<Turn>();
-
-	/** Set of available drawn turns. */
-	private Set<Turn> draws = new HashSet<Turn>();
-
-	/** Set of available stalemate turns. */
-	private Set<Turn> stalemates = new HashSet<Turn>();
-
-	/** Set of all other available turns. */
-	private Set<Turn> other = new HashSet<Turn>();
+	/** Reusable buffer of available moves. */
+	private MoveList validMoves;
 
 	/**
 	 * Construct a new AI player.
@@ -52,19 +40,17 @@ public class EvaluatingAsyncAI2 extends AsyncAI {
 		this.playerNumber = playerNumber;
 	}
 
-	/** Clear all sets of Turns, in preparation for calculating the next move/shoot pair. */
-	private void preMoveSetup() {
-		wins.clear();
-		losses.clear();
-		draws.clear();
-		stalemates.clear();
-		other.clear();
+	/** Prepare for calculating the next move/shoot pair. */
+	private void preMoveSetup(final GameState state) {
+		if (validMoves == null) {
+			validMoves = new MoveList(state);
+		}
 	}
 
 	@Override
-	protected void doThinking(GameState state) {
+	protected void doThinking(final GameState state, final TurnBudget budget) {
 
-		preMoveSetup();
+		preMoveSetup(state);
 
 		// Check that the game is waiting for a move instruction
 		if (GameState.getTurnPhase(state) != GameState.PHASE_MOVE) {
@@ -79,196 +65,230 @@ public class EvaluatingAsyncAI2 extends AsyncAI {
 		}
 
 		// Determine available moves
-		final Set<byte[]> validMoves = GameState.getValidMoves(state);
+		GameState.generateMoves(state, validMoves);
 
 		if (DEBUG_LOG) {
 			System.out.println(TAG + "::doThinking;validMoves.size=" + validMoves.size());
 		}
 
-		// Iterate through all possible moves
-		for (final byte[] move : validMoves) {
-
-			// Determine the prospective new game state
-			final GameState stateAfterMove = GameState.apply(state, move);
-
-			// Determine available shoots
-			final Set<byte[]> validShoots = GameState.getValidMoves(stateAfterMove);
-
-			if (DEBUG_LOG) {
-				System.out.println(TAG + "::doThinking;move[" + move[0] + "," + move[1] + "],validShoots.size="
-						+ validShoots.size());
-			}
-
-			// Iterate through all possible shoots, given the current move
-			for (final byte[] shoot : validShoots) {
-
-				final GameState finalState = GameState.apply(stateAfterMove, shoot);
-				final Turn turn = new Turn(move, shoot, finalState);
-
-				if (GameState.isStalemate(finalState)) {
-					// Stalemate
-					if (DEBUG_LOG) {
-						System.out.println(TAG + "::doThinking;move[" + move[0] + "," + move[1] + "],shoot[" + shoot[0]
-								+ "," + shoot[1] + "] is a stalemate");
-					}
-					stalemates.add(turn);
-				} else if (GameState.isGameOver(finalState)) {
-					// Win, loss or draw
-					if (GameState.isDraw(finalState)) {
-						// Draw
-						if (DEBUG_LOG) {
-							System.out.println(TAG + "::doThinking;move[" + move[0] + "," + move[1] + "],shoot["
-									+ shoot[0] + "," + shoot[1] + "] is a draw");
-						}
-						draws.add(turn);
-					} else if (GameState.getWinningPlayer(finalState) == playerNumber) {
-						// Win
-						if (DEBUG_LOG) {
-							System.out.println(TAG + "::doThinking;move[" + move[0] + "," + move[1] + "],shoot["
-									+ shoot[0] + "," + shoot[1] + "] is a win");
-						}
-						wins.add(turn);
-					} else {
-						// Loss
-						if (DEBUG_LOG) {
-							System.out.println(TAG + "::doThinking;move[" + move[0] + "," + move[1] + "],shoot["
-									+ shoot[0] + "," + shoot[1] + "] is a loss");
-						}
-						losses.add(turn);
-					}
-				} else {
-					// Game continues
-					other.add(turn);
-				}
+		// Evaluate every move and shoot, shared between this thread and helpers
+		final AtomicInteger nextMove = new AtomicInteger();
+		final int helpers = Math.max(0, Math.min(AIExecutor.getHelperThreads(), validMoves.size() - 1));
+		final TurnTask[] helperTasks = new TurnTask[helpers];
+		final Future<?>[] helperResults = new Future<?>[helperTasks.length];
+		for (int i = 0; i < helperTasks.length; i++) {
+			helperTasks[i] = new TurnTask(this, state, validMoves, playerNumber, nextMove);
+			helperResults[i] = AIExecutor.help(helperTasks[i]);
+		}
+		final TurnTask task = new TurnTask(this, state, validMoves, playerNumber, nextMove);
+		task.run();
+
+		// Gather the results - a helper that never started evaluated nothing
+		final Buckets buckets = task.buckets;
+		for (int i = 0; i < helperTasks.length; i++) {
+			if (AIExecutor.finish(helperResults[i])) {
+				buckets.merge(helperTasks[i].buckets);
 			}
 		}
+		if (isCancelled()) {
+			// The results are incomplete, and nobody is interested in them anyway
+			return;
+		}
 
 		// Now need to pick a move/shoot pair
-		if (!wins.isEmpty()) {
+		final TurnReservoir chosen;
+		if (!buckets.wins.isEmpty()) {
 			// Pick a random winning move - don't care which
-			chosenTurn = randomElement(wins);
-		} else if (!other.isEmpty()) {
+			chosen = buckets.wins;
+		} else if (!buckets.other.isEmpty()) {
 			// Pick the best move available
-			chosenTurn = pickBest(other);
-		} else if (!draws.isEmpty()) {
+			chosen = buckets.other;
+		} else if (!buckets.draws.isEmpty()) {
 			// Pick a random drawn move - don't care which
-			chosenTurn = randomElement(draws);
-		} else if (!stalemates.isEmpty()) {
+			chosen = buckets.draws;
+		} else if (!buckets.stalemates.isEmpty()) {
 			// Pick a random stalemate - don't care which
-			chosenTurn = randomElement(stalemates);
-		} else if (!losses.isEmpty()) {
+			chosen = buckets.stalemates;
+		} else if (!buckets.losses.isEmpty()) {
 			// Pick a random losing move - don't care which
-			chosenTurn = randomElement(losses);
+			chosen = buckets.losses;
+		} else {
+			throw new IllegalStateException(TAG + "[" + playerNumber + "]::doThinking;no_turns");
+		}
+
+		if (DEBUG_LOG) {
+			System.out.println(TAG + "::doThinking;chose one of " + chosen.getCount() + " turns");
 		}
 
-		move = chosenTurn.move;
-		shoot = chosenTurn.shoot;
+		move = GameState.getCoords(state, chosen.getMove());
+		shoot = GameState.getCoords(state, chosen.getShoot());
 	}
 
 	/**
-	 * Rank the turns in the given set and return the "best" turn present. Suitability is judged by minimizing the
-	 * number of moves available to the other player while maximizing the number of moves left available to the self.
+	 * The best turns of each kind, by the result of the game after they are played.
 	 * 
-	 * @param set
-	 *            The set containing move/shoot pairs to pick from.
-	 * @return The best move from the set.
-	 * @throws IllegalArgumentException
-	 *             if the specified set is empty.
+	 * @author Charlie
 	 */
-	private Turn pickBest(final Set<Turn> set) {
-
-		if (set.isEmpty()) {
-			throw new IllegalArgumentException(TAG + "::pickBest;empty");
+	private static class Buckets {
+		final Random random = new Random();
+		final TurnReservoir wins = new TurnReservoir(random);
+		final TurnReservoir losses = new TurnReservoir(random);
+		final TurnReservoir draws = new TurnReservoir(random);
+		final TurnReservoir stalemates = new TurnReservoir(random);
+		final TurnReservoir other = new TurnReservoir(random);
+
+		/**
+		 * Combine with another set of buckets, as if all its turns had been offered to these.
+		 * 
+		 * @param buckets
+		 *            The other buckets.
+		 */
+		void merge(final Buckets buckets) {
+			wins.merge(buckets.wins);
+			losses.merge(buckets.losses);
+			draws.merge(buckets.draws);
+			stalemates.merge(buckets.stalemates);
+			other.merge(buckets.other);
 		}
+	}
 
-		// Map to contain (score) -> (turns with that score)
-		final Map<Integer, Set<Turn>> ranked = new HashMap<Integer, Set<Turn>>();
+	/**
+	 * Task to evaluate every turn starting with some of the available moves. Tasks share a counter of the next move to
+	 * evaluate, and take moves from it until there are none left, so that work is spread evenly whenever each task
+	 * starts. Scratch storage belongs to the thread running the task, and results to the task.
+	 * 
+	 * @author Charlie
+	 */
+	private static class TurnTask implements Runnable {
 
-		for (final Turn turn : set) {
+		/** The AI player, polled for cancellation. */
+		private final AsyncAI owner;
 
-			// Evaluation is based on limiting next player's options and maximizing our own options
-			final int nextPlayerOptions = GameState.getValidMoves(turn.endState).size();
-			final int ownOptions = GameState.getValidMoves(turn.endState, playerNumber).size();
+		/** The game state, awaiting a move. Shared between tasks, so never modified. */
+		private final GameState state;
 
-			// Calculate the score for this move/shoot pair
-			final int score = ownOptions - nextPlayerOptions;
+		/** The available moves. Shared between tasks, so never modified. */
+		private final MoveList validMoves;
 
-			if (DEBUG_LOG) {
-				System.out.println(TAG + "::pickBest;move[" + turn.move[0] + "," + turn.move[1] + "],shoot["
-						+ turn.shoot[0] + "," + turn.shoot[1] + "];score=" + score);
-			}
+		/** The AI player's number. */
+		private final int playerNumber;
 
-			if (ranked.containsKey(score)) {
-				ranked.get(score).add(turn);
-			} else {
-				final Set<Turn> newSet = new HashSet<Turn>();
-				newSet.add(turn);
-				ranked.put(score, newSet);
-			}
-		}
+		/** The index of the next move to be evaluated by any task. */
+		private final AtomicInteger nextMove;
 
-		if (DEBUG_LOG) {
-			for (final Integer score : ranked.keySet()) {
-				System.out.println(TAG + "::pickMostDamaging;score=" + score + ",options=" + ranked.get(score).size());
-			}
+		/** The best turns of each kind found by this task. */
+		final Buckets buckets = new Buckets();
+
+		public TurnTask(final AsyncAI owner, final GameState state, final MoveList validMoves, final int playerNumber,
+				final AtomicInteger nextMove) {
+			this.owner = owner;
+			this.state = state;
+			this.validMoves = validMoves;
+			this.playerNumber = playerNumber;
+			this.nextMove = nextMove;
 		}
 
-		// Work out the set of best moves
-		int maximumScore = Integer.MIN_VALUE;
-		Set<Turn> bestMoves = null;
+		@Override
+		public void run() {
+			// Scratch storage for this task, recycled from the thread's arena - a working copy of the state, through
+			// which moves and shoots are made and unmade
+			final SearchArena arena = SearchArena.get(state);
+			final GameState working = arena.working(state);
+			final SearchArena.Frame frame = arena.frame(0);
+			final MoveList validShoots = frame.shoots;
+			final UndoRecord moveUndo = frame.moveUndo;
+			final UndoRecord shootUndo = frame.shootUndo;
+			final Outcome outcome = arena.outcome();
+			final SeparatorAnalysis separators = frame.separators;
+			final MobilityTracker mobility = arena.mobility(state);
+
+			// Take moves one at a time until none remain
+			for (int m = nextMove.getAndIncrement(); m < validMoves.size(); m = nextMove.getAndIncrement()) {
+				if (owner.isCancelled()) {
+					break;
+				}
 
-		for (int score : ranked.keySet()) {
-			if (score > maximumScore) {
-				maximumScore = score;
-				bestMoves = ranked.get(score);
-			}
-		}
+				final int move = validMoves.get(m);
+				final int origin = working.playerSquares[playerNumber];
 
-		// Pick a random move out of the best available moves
-		return randomElement(bestMoves);
-	}
+				// Make the move on the working state
+				GameState.make(working, move, moveUndo);
+				mobility.move(origin, move);
 
-	/**
-	 * Get a random element from a set of turns.
-	 * 
-	 * @param set
-	 *            A set of Turn objects.
-	 * @return A random element from the specified set.
-	 * @throws IllegalArgumentException
-	 *             if the specified set is empty.
-	 */
-	private Turn randomElement(final Set<Turn> set) {
+				// Determine available shoots, and which of them would end the game
+				GameState.generateMoves(working, validShoots);
+				separators.analyse(working);
 
-		if (set.isEmpty()) {
-			throw new IllegalArgumentException(TAG + "::randomElement;empty");
-		}
+				if (DEBUG_LOG) {
+					System.out.println(TAG + "::compute;move[" + move + "],validShoots.size=" + validShoots.size());
+				}
 
-		int random = new Random().nextInt(set.size());
-		int i = 0;
-		for (final Turn turn : set) {
-			if (i == random) {
-				return turn;
-			}
-			i++;
-		}
+				// Iterate through all possible shoots, given the current move
+				for (int s = 0; s < validShoots.size(); s++) {
+					final int shoot = validShoots.get(s);
 
-		throw new RuntimeException(TAG + "::randomElement;no_more_elements");
-	}
+					// Make the shoot on the working state
+					GameState.make(working, shoot, shootUndo);
 
-	/**
-	 * Simple class to hold move and shoot coordinates, plus resulting game states.
-	 * 
-	 * @author Charlie
-	 */
-	private static class Turn {
-		final byte[] move;
-		final byte[] shoot;
-		final GameState endState;
-
-		public Turn(final byte[] move, final byte[] shoot, final GameState endState) {
-			this.move = move;
-			this.shoot = shoot;
-			this.endState = endState;
+					switch (separators.classify(working, shoot, outcome)) {
+					case Outcome.STALEMATE:
+						// Stalemate
+						if (DEBUG_LOG) {
+							System.out.println(TAG + "::compute;move[" + move + "],shoot[" + shoot
+									+ "] is a stalemate");
+						}
+						buckets.stalemates.offer(move, shoot, 0);
+						break;
+					case Outcome.DRAW:
+						// Draw
+						if (DEBUG_LOG) {
+							System.out.println(TAG + "::compute;move[" + move + "],shoot[" + shoot + "] is a draw");
+						}
+						buckets.draws.offer(move, shoot, 0);
+						break;
+					case Outcome.WIN:
+						if (outcome.getWinner() == playerNumber) {
+							// Win
+							if (DEBUG_LOG) {
+								System.out.println(TAG + "::compute;move[" + move + "],shoot[" + shoot + "] is a win");
+							}
+							buckets.wins.offer(move, shoot, 0);
+						} else {
+							// Loss
+							if (DEBUG_LOG) {
+								System.out.println(TAG + "::compute;move[" + move + "],shoot[" + shoot + "] is a loss");
+							}
+							buckets.losses.offer(move, shoot, 0);
+						}
+						break;
+					default:
+						// Game continues - score the turn as it stands, then discard it. Evaluation is based on
+						// limiting next player's options and maximizing our own options.
+						mobility.shoot(shoot);
+						final int nextPlayerOptions = mobility.getMobility(working, working.currentPlayerIndex);
+						final int ownOptions = mobility.getMobility(working, playerNumber);
+						mobility.unshoot(shoot);
+
+						// Calculate the score for this move/shoot pair
+						final int score = ownOptions - nextPlayerOptions;
+
+						if (DEBUG_LOG) {
+							System.out.println(TAG + "::compute;move[" + move + "],shoot[" + shoot + "];score="
+									+ score);
+						}
+
+						buckets.other.offer(move, shoot, score);
+						break;
+					}
+
+					// Restore the working state to its post-move state
+					GameState.unmake(working, shootUndo);
+				}
+
+				// Restore the working state to its original state
+				GameState.unmake(working, moveUndo);
+				mobility.unmove(origin, move);
+			}
 		}
 	}
 }
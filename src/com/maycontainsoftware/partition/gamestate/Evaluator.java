@@ -0,0 +1,21 @@
+package com.maycontainsoftware.partition.gamestate;
+
+/**
+ * Interface for a static evaluation of a position, as used to score the leaves of a search. Implementations may hold
+ * working storage sized for a particular board, so an instance should only be used by one thread at a time.
+ * 
+ * @author Charlie
+ */
+public interface Evaluator {
+
+	/**
+	 * Evaluate a game state from the point of view of a player. Higher scores are better for the player.
+	 * 
+	 * @param state
+	 *            The game state.
+	 * @param playerIndex
+	 *            The player index.
+	 * @return The score.
+	 */
+	public int evaluate(final GameState state, final int playerIndex);
+}
@@ -1,24 +1,32 @@
 package com.maycontainsoftware.partition.gamestate;
 
-import java.util.Arrays;
-import java.util.Comparator;
+import java.util.AbstractSet;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.TreeSet;
 
 /**
  * Representation of game state with a very minimal memory-footprint. Rough calculations indicate that a single state of
- * a two-player game on a 10x10 board will occupy approximately 127 bytes. This becomes useful when needing to hold a
+ * a two-player game on a 10x10 board will occupy approximately 90 bytes. This becomes useful when needing to hold a
  * history of moves, or needing to traverse possible future moves.
  * 
+ * Internally tiles are addressed by a square index of (row * columns + column). Enabled tiles are held as a bitboard
+ * packed 64 squares to a long, and players as an array of square indices, so duplicating a state costs a couple of
+ * small flat array copies rather than one allocation per column. Everything that depends only on the shape of the board
+ * is held in a BoardGeometry shared by all states of that shape.
+ * 
  * @author Charlie
  */
 public class GameState {
 
-	/** Whether a particular tile is enabled. */
-	public boolean[][] tileEnabled;
+	/** The shape of the board, shared between all states on boards of the same size. */
+	BoardGeometry geometry;
+
+	/** Enabled tiles, as a bitboard. Square index i is enabled if bit (i % 64) of word (i / 64) is set. */
+	long[] tiles;
 
 	/** The current player index. */
 	public byte currentPlayerIndex;
@@ -34,19 +42,11 @@ public class GameState {
 	/** Constant to represent the shoot phase. */
 	public static final byte PHASE_SHOOT = 0x2;
 
-	/** The player board-coordinates, as playerCoords[#players][2]. */
-	public byte[][] playerCoords;
+	/** The player positions, as square indices. */
+	short[] playerSquares;
 
-	/** Deltas to apply to a coordinate to locate surrounding tiles. */
-	private static final byte[][] COORDINATE_DELTAS = new byte[][] {
-	/* SW */{ -1, -1 },
-	/* W */{ -1, 0 },
-	/* NW */{ -1, 1 },
-	/* N */{ 0, 1 },
-	/* NE */{ 1, 1 },
-	/* E */{ 1, 0 },
-	/* SE */{ 1, -1 },
-	/* S */{ 0, -1 }, };
+	/** The Zobrist hash of this state, maintained incrementally as actions are applied. */
+	long hash;
 
 	/**
 	 * Generate a new game state from a board layout specified as a String. In a board layout rows are separated by
@@ -63,8 +63,9 @@ public class GameState {
 		// Split board layout into rows
 		final String[] rows = boardLayout.split("\n");
 
-		// Create array of tiles
-		state.tileEnabled = new boolean[rows[0].length()][rows.length];
+		// Create bitboard of tiles, all initially disabled
+		state.geometry = BoardGeometry.forSize(rows[0].length(), rows.length);
+		state.tiles = new long[state.geometry.words];
 
 		// Process board layout
 		for (byte r = 0; r < rows.length; r++) {
@@ -72,13 +73,12 @@ public class GameState {
 				final char ch = rows[r].charAt(c);
 				if (ch == '.') {
 					// Enabled tile
-					state.tileEnabled[c][r] = true;
+					setBit(state.tiles, getSquare(state, c, r));
 				} else if (ch == '#') {
 					// Disabled tile
-					state.tileEnabled[c][r] = false;
 				} else if (ch >= '0' && ch <= '9') {
 					// Tile is enabled and contains a player
-					state.tileEnabled[c][r] = true;
+					setBit(state.tiles, getSquare(state, c, r));
 					final int playerIndex = ch - '0';
 					playerCoordinateMap.put(playerIndex, new byte[] { c, r });
 				} else {
@@ -88,9 +88,10 @@ public class GameState {
 		}
 
 		// Arrange players as list
-		state.playerCoords = new byte[playerCoordinateMap.size()][];
-		for (int i = 0; i < state.playerCoords.length; i++) {
-			state.playerCoords[i] = playerCoordinateMap.get(i);
+		state.playerSquares = new short[playerCoordinateMap.size()];
+		for (int i = 0; i < state.playerSquares.length; i++) {
+			final byte[] coords = playerCoordinateMap.get(i);
+			state.playerSquares[i] = (short) getSquare(state, coords[0], coords[1]);
 		}
 
 		// Start with player 0
@@ -99,6 +100,9 @@ public class GameState {
 		// First action is always to move
 		state.turnPhase = PHASE_MOVE;
 
+		// Initial hash, which is thereafter updated incrementally
+		state.hash = computeHash(state);
+
 		return state;
 	}
 
@@ -110,7 +114,7 @@ public class GameState {
 	 * @return The number of columns.
 	 */
 	public static int getNumberOfColumns(final GameState state) {
-		return state.tileEnabled.length;
+		return state.geometry.columns;
 	}
 
 	/**
@@ -121,7 +125,33 @@ public class GameState {
 	 * @return The number of rows.
 	 */
 	public static int getNumberOfRows(final GameState state) {
-		return state.tileEnabled[0].length;
+		return state.geometry.rows;
+	}
+
+	/**
+	 * Return the number of squares on the board, i.e. the number of columns multiplied by the number of rows.
+	 * 
+	 * @param state
+	 *            The game state.
+	 * @return The number of squares.
+	 */
+	public static int getNumberOfSquares(final GameState state) {
+		return state.geometry.squares;
+	}
+
+	/**
+	 * Return the number of enabled tiles on the board, including those occupied by players.
+	 * 
+	 * @param state
+	 *            The game state.
+	 * @return The number of enabled tiles.
+	 */
+	public static int countEnabledTiles(final GameState state) {
+		int count = 0;
+		for (final long word : state.tiles) {
+			count += Long.bitCount(word);
+		}
+		return count;
 	}
 
 	/**
@@ -132,7 +162,7 @@ public class GameState {
 	 * @return The number of players.
 	 */
 	public static int getNumberOfPlayers(final GameState state) {
-		return state.playerCoords.length;
+		return state.playerSquares.length;
 	}
 
 	/**
@@ -145,7 +175,64 @@ public class GameState {
 	 * @return The player coordinates as a two-element byte array.
 	 */
 	public static byte[] getPlayerCoords(final GameState state, final int playerIndex) {
-		return state.playerCoords[playerIndex];
+		return getCoords(state, state.playerSquares[playerIndex]);
+	}
+
+	/**
+	 * Return the square index of the specified player.
+	 * 
+	 * @param state
+	 *            The game state.
+	 * @param playerIndex
+	 *            The player index (zero-based).
+	 * @return The square index of the tile the player is standing on.
+	 */
+	public static int getPlayerSquare(final GameState state, final int playerIndex) {
+		return state.playerSquares[playerIndex];
+	}
+
+	/**
+	 * Convert board coordinates to a square index. No range checking is performed.
+	 * 
+	 * @param state
+	 *            The game state.
+	 * @param c
+	 *            The column coordinate.
+	 * @param r
+	 *            The row coordinate.
+	 * @return The square index, (r * columns + c).
+	 */
+	public static int getSquare(final GameState state, final int c, final int r) {
+		return r * state.geometry.columns + c;
+	}
+
+	/**
+	 * Convert a square index to board coordinates.
+	 * 
+	 * @param state
+	 *            The game state.
+	 * @param square
+	 *            The square index.
+	 * @return The coordinates as a two-element byte array.
+	 */
+	public static byte[] getCoords(final GameState state, final int square) {
+		final int columns = state.geometry.columns;
+		return new byte[] { (byte) (square % columns), (byte) (square / columns) };
+	}
+
+	/**
+	 * Whether a tile is enabled. No range checking is performed.
+	 * 
+	 * @param state
+	 *            The game state.
+	 * @param c
+	 *            The column of the tile.
+	 * @param r
+	 *            The row of the tile.
+	 * @return True if the tile is enabled, false otherwise.
+	 */
+	public static boolean isTileEnabled(final GameState state, final int c, final int r) {
+		return isBitSet(state.tiles, getSquare(state, c, r));
 	}
 
 	/**
@@ -160,8 +247,21 @@ public class GameState {
 	 * @return False if any player exists on the specified tile, true otherwise.
 	 */
 	public static boolean tileUnoccupied(final GameState state, final byte c, final byte r) {
-		for (final byte[] coords : state.playerCoords) {
-			if (coords[0] == c && coords[1] == r) {
+		return squareUnoccupied(state, getSquare(state, c, r));
+	}
+
+	/**
+	 * Whether a square contains a player.
+	 * 
+	 * @param state
+	 *            The game state.
+	 * @param square
+	 *            The square index.
+	 * @return False if any player exists on the specified square, true otherwise.
+	 */
+	static boolean squareUnoccupied(final GameState state, final int square) {
+		for (final short playerSquare : state.playerSquares) {
+			if (playerSquare == square) {
 				return false;
 			}
 		}
@@ -180,9 +280,7 @@ public class GameState {
 	 * @return True if the coordinates are valid, false otherwise.
 	 */
 	public static boolean isValidCoordinates(final GameState state, final byte c, final byte r) {
-		final byte numberOfColumns = (byte) state.tileEnabled.length;
-		final byte numberOfRows = (byte) state.tileEnabled[0].length;
-		return c >= 0 && c < numberOfColumns && r >= 0 && r < numberOfRows;
+		return c >= 0 && c < state.geometry.columns && r >= 0 && r < state.geometry.rows;
 	}
 
 	/**
@@ -206,49 +304,99 @@ public class GameState {
 	 *         be shot from the specified player's position.
 	 */
 	public static Set<byte[]> getValidMoves(final GameState state, final int playerNumber) {
-		// Coordinates of current player
-		final byte[] startingCoords = state.playerCoords[playerNumber];
-		final byte startingColumn = startingCoords[0];
-		final byte startingRow = startingCoords[1];
+		// Generate moves as square indices
+		final MoveList moves = new MoveList(state);
+		generateMoves(state, playerNumber, moves);
 
 		// Set in which to store possible moves
-		final Set<byte[]> possibleMoves = new CoordinateSet();
-
-		// Apply coordinate deltas in turn to find reachable tiles
-		for (final byte[] delta : COORDINATE_DELTAS) {
-			// Initial coordinate
-			byte c = startingColumn;
-			byte r = startingRow;
-
-			while (true) {
-				// Apply delta
-				c += delta[0];
-				r += delta[1];
-				// Check for coordinate out of range
-				if (!isValidCoordinates(state, c, r)) {
-					break;
-				}
-				// Check for disabled tile
-				if (!state.tileEnabled[c][r]) {
+		final SquareSet possibleMoves = new SquareSet(getNumberOfSquares(state));
+		for (int i = 0; i < moves.size; i++) {
+			possibleMoves.add(moves.moves[i]);
+		}
+
+		return new CoordinateSet(state.geometry, possibleMoves);
+	}
+
+	/**
+	 * Generate all possible single moves from the current state, for the current player as per the game state.
+	 * 
+	 * @param state
+	 *            The game state.
+	 * @param moves
+	 *            The list into which to write the moves, as square indices. Any existing content is discarded.
+	 * @return The number of moves generated.
+	 */
+	public static int generateMoves(final GameState state, final MoveList moves) {
+		return generateMoves(state, state.currentPlayerIndex, moves);
+	}
+
+	/**
+	 * Generate all possible single moves from the current state for the specified player. This method performs no
+	 * allocation unless the move list has to grow.
+	 * 
+	 * @param state
+	 *            The game state.
+	 * @param playerNumber
+	 *            The player index.
+	 * @param moves
+	 *            The list into which to write the moves, as square indices. Any existing content is discarded.
+	 * @return The number of moves generated.
+	 */
+	public static int generateMoves(final GameState state, final int playerNumber, final MoveList moves) {
+		final BoardGeometry geometry = state.geometry;
+		final int startingSquare = state.playerSquares[playerNumber];
+
+		moves.clear();
+
+		// Walk each ray out from the player's square in turn
+		final int firstRay = startingSquare * BoardGeometry.NUMBER_OF_DIRECTIONS;
+		for (int ray = firstRay; ray < firstRay + BoardGeometry.NUMBER_OF_DIRECTIONS; ray++) {
+			for (int i = geometry.rayStart[ray]; i < geometry.rayStart[ray + 1]; i++) {
+				final int square = geometry.rays[i];
+				// Stop at disabled or occupied tiles
+				if (!isBitSet(state.tiles, square) || !squareUnoccupied(state, square)) {
 					break;
 				}
-				// Check for occupied tile
-				if (!GameState.tileUnoccupied(state, c, r)) {
+				// Otherwise, add and continue
+				moves.add(square);
+			}
+		}
+
+		return moves.size;
+	}
+
+	/**
+	 * Count the possible single moves from the current state for the specified player, without generating them.
+	 * 
+	 * @param state
+	 *            The game state.
+	 * @param playerNumber
+	 *            The player index.
+	 * @return The number of valid moves.
+	 */
+	public static int countValidMoves(final GameState state, final int playerNumber) {
+		final BoardGeometry geometry = state.geometry;
+		final int startingSquare = state.playerSquares[playerNumber];
+
+		int count = 0;
+
+		final int firstRay = startingSquare * BoardGeometry.NUMBER_OF_DIRECTIONS;
+		for (int ray = firstRay; ray < firstRay + BoardGeometry.NUMBER_OF_DIRECTIONS; ray++) {
+			for (int i = geometry.rayStart[ray]; i < geometry.rayStart[ray + 1]; i++) {
+				final int square = geometry.rays[i];
+				if (!isBitSet(state.tiles, square) || !squareUnoccupied(state, square)) {
 					break;
 				}
-				// Otherwise, add and continue
-				possibleMoves.add(new byte[] { c, r });
+				count++;
 			}
 		}
 
-		return possibleMoves;
+		return count;
 	}
 
 	/**
-	 * Whether or not a move is valid. Some optimisations could be made to this method, for example an initial
-	 * sanity-check that the current coordinate and the new coordinate are aligned. It might be faster to check
-	 * alignment, determine direction and then walk the board to check intermediate squares rather than determine all
-	 * valid moves then check whether the new coordinate is one of them.
+	 * Whether or not a move is valid. Rather than generating all valid moves, this checks that the current coordinate
+	 * and the new coordinate are aligned, then walks the single line between them checking each tile.
 	 * 
 	 * @param state
 	 *            The game state.
@@ -257,8 +405,49 @@ public class GameState {
 	 * @return True if the new coordinate is a valid move, false otherwise.
 	 */
 	public static boolean isValidMove(final GameState state, final byte[] newCoord) {
-		Set<byte[]> validMoves = getValidMoves(state);
-		return validMoves.contains(newCoord);
+		final byte c = newCoord[0];
+		final byte r = newCoord[1];
+		return isValidCoordinates(state, c, r) && isValidMove(state, getSquare(state, c, r));
+	}
+
+	/**
+	 * Whether or not a move, given as a square index, is valid. The move is valid if the new square is aligned with the
+	 * current player's square horizontally, vertically or diagonally, and every tile on the way, including the new
+	 * square, is enabled and unoccupied.
+	 * 
+	 * @param state
+	 *            The game state.
+	 * @param square
+	 *            The square index of the move.
+	 * @return True if the square is a valid move, false otherwise.
+	 */
+	public static boolean isValidMove(final GameState state, final int square) {
+		if (square < 0 || square >= getNumberOfSquares(state)) {
+			return false;
+		}
+
+		final int columns = state.geometry.columns;
+		final int from = state.playerSquares[state.currentPlayerIndex];
+		final int deltaC = square % columns - from % columns;
+		final int deltaR = square / columns - from / columns;
+
+		// Check alignment
+		if (deltaC == 0 && deltaR == 0) {
+			return false;
+		} else if (deltaC != 0 && deltaR != 0 && Math.abs(deltaC) != Math.abs(deltaR)) {
+			return false;
+		}
+
+		// Walk the ray from the player towards the new square
+		final int step = Integer.signum(deltaR) * columns + Integer.signum(deltaC);
+		for (int s = from + step;; s += step) {
+			if (!isBitSet(state.tiles, s) || !squareUnoccupied(state, s)) {
+				return false;
+			}
+			if (s == square) {
+				return true;
+			}
+		}
 	}
 
 	/**
@@ -270,13 +459,11 @@ public class GameState {
 	 */
 	public static Set<byte[]> getAllTiles(final GameState state) {
 
-		final Set<byte[]> allTiles = new CoordinateSet();
-		for (byte c = 0; c < state.tileEnabled.length; c++) {
-			for (byte r = 0; r < state.tileEnabled[c].length; r++) {
-				allTiles.add(new byte[] { c, r });
-			}
+		final SquareSet allTiles = new SquareSet(getNumberOfSquares(state));
+		for (int square = 0; square < getNumberOfSquares(state); square++) {
+			allTiles.add(square);
 		}
-		return allTiles;
+		return new CoordinateSet(state.geometry, allTiles);
 	}
 
 	/**
@@ -301,43 +488,126 @@ public class GameState {
 	 */
 	public static Set<byte[]> getReachableTiles(final GameState state, int playerIndex) {
 
-		final Set<byte[]> reachableTiles = new CoordinateSet();
-		final byte[] startingCoordinate = state.playerCoords[playerIndex];
+		final long[] region = new long[state.tiles.length];
 
-		getReachableTiles(state, reachableTiles, startingCoordinate);
+		fillRegion(state, state.playerSquares[playerIndex], region);
 
-		return reachableTiles;
+		return new CoordinateSet(state.geometry, new SquareSet(region));
 	}
 
 	/**
-	 * Internal method for use in finding reachable tiles. This method is heavily recursive.
+	 * Get the number of reachable tiles, based on the specified player's coordinates. For boards of up to 64 squares
+	 * this performs no allocation.
 	 * 
 	 * @param state
 	 *            The game state.
-	 * @param reachableTiles
-	 *            The accumulated Set of all reachable tile coordinates.
-	 * @param coord
-	 *            The next coordinate to search from.
+	 * @param playerIndex
+	 *            The specified player's index.
+	 * @return The number of reachable tiles, including the one the player is standing on.
 	 */
-	private static void getReachableTiles(final GameState state, final Set<byte[]> reachableTiles, final byte[] coord) {
+	public static int getReachableCount(final GameState state, final int playerIndex) {
+		return fillRegion(state, state.playerSquares[playerIndex], null);
+	}
 
-		final byte c = coord[0];
-		final byte r = coord[1];
+	/**
+	 * Find the region of enabled tiles that is 8-connected to a square. This is an iterative flood fill. For boards of
+	 * up to 64 squares the whole board fits in one word, and the region is grown by shifting and masking that word
+	 * until it stops changing. Larger boards are filled by sweeping the region bitboard alternately forwards and
+	 * backwards, adding the enabled neighbours of each region square, until a sweep adds nothing.
+	 * 
+	 * @param state
+	 *            The game state.
+	 * @param square
+	 *            The square index from which to fill.
+	 * @param region
+	 *            Optional bitboard of the same length as the state's tile bitboard, which receives the region. If null,
+	 *            the region is only counted, and no allocation is performed for boards of up to 64 squares.
+	 * @return The number of tiles in the region, or 0 if the starting tile is disabled.
+	 */
+	public static int fillRegion(final GameState state, final int square, final long[] region) {
 
-		if (!isValidCoordinates(state, c, r)) {
-			return;
-		} else if (!state.tileEnabled[c][r]) {
-			return;
-		} else if (reachableTiles.contains(coord)) {
-			return;
-		} else {
-			reachableTiles.add(coord);
-			for (final byte[] delta : COORDINATE_DELTAS) {
-				final byte newC = (byte) (c + delta[0]);
-				final byte newR = (byte) (r + delta[1]);
-				final byte[] newCoord = new byte[] { newC, newR };
-				getReachableTiles(state, reachableTiles, newCoord);
+		final BoardGeometry geometry = state.geometry;
+
+		if (geometry.words == 1 && geometry.columns < 63) {
+			// Single-word board
+			final long mask = fillRegionWord(state, square);
+			if (region != null) {
+				region[0] = mask;
+			}
+			return Long.bitCount(mask);
+		}
+
+		final long[] bits = region != null ? region : new long[state.tiles.length];
+		for (int i = 0; i < bits.length; i++) {
+			bits[i] = 0L;
+		}
+
+		if (!isBitSet(state.tiles, square)) {
+			return 0;
+		}
+		setBit(bits, square);
+
+		final int numberOfSquares = geometry.squares;
+		boolean changed = true;
+		boolean forwards = true;
+		while (changed) {
+			changed = false;
+			for (int i = 0; i < numberOfSquares; i++) {
+				final int s = forwards ? i : numberOfSquares - 1 - i;
+				if (!isBitSet(bits, s)) {
+					continue;
+				}
+				for (int n = geometry.neighbourStart[s]; n < geometry.neighbourStart[s + 1]; n++) {
+					final int newS = geometry.neighbours[n];
+					if (isBitSet(state.tiles, newS) && !isBitSet(bits, newS)) {
+						setBit(bits, newS);
+						changed = true;
+					}
+				}
 			}
+			forwards = !forwards;
+		}
+
+		int count = 0;
+		for (final long word : bits) {
+			count += Long.bitCount(word);
+		}
+		return count;
+	}
+
+	/**
+	 * Internal method to flood fill a board of at most 64 squares, and fewer than 63 columns, held in a single word.
+	 * 
+	 * @param state
+	 *            The game state.
+	 * @param square
+	 *            The square index from which to fill.
+	 * @return The region, as a single-word bitboard.
+	 */
+	private static long fillRegionWord(final GameState state, final int square) {
+
+		final long enabled = state.tiles[0];
+		if ((enabled & (1L << square)) == 0) {
+			return 0L;
+		}
+
+		// Masks of squares that have a neighbour to the west, and to the east
+		final int columns = state.geometry.columns;
+		final long hasWest = state.geometry.hasWest;
+		final long hasEast = state.geometry.hasEast;
+
+		long region = 1L << square;
+		while (true) {
+			final long west = region & hasWest;
+			final long east = region & hasEast;
+			final long grown = (region | region << columns | region >>> columns
+					| east << 1 | east << (columns + 1) | east >>> (columns - 1)
+					| west >>> 1 | west >>> (columns + 1) | west << (columns - 1))
+					& enabled;
+			if (grown == region) {
+				return region;
+			}
+			region = grown;
 		}
 	}
 
@@ -350,20 +620,18 @@ public class GameState {
 	 *         reached.
 	 */
 	public static Set<byte[]> getUnreachableEnabledTiles(final GameState state) {
-		// All tiles
-		final Set<byte[]> tiles = GameState.getAllTiles(state);
+		// Enabled tiles
+		final long[] unreachable = state.tiles.clone();
 		// Remove reachable tiles
+		final long[] region = new long[state.tiles.length];
 		for (int i = 0; i < getNumberOfPlayers(state); i++) {
-			tiles.removeAll(GameState.getReachableTiles(state, i));
-		}
-		// Collect together only those that are enabled
-		final Set<byte[]> enabledTiles = new HashSet<byte[]>();
-		for (final byte[] coords : tiles) {
-			if (state.tileEnabled[coords[0]][coords[1]]) {
-				enabledTiles.add(coords);
+			fillRegion(state, state.playerSquares[i], region);
+			for (int w = 0; w < unreachable.length; w++) {
+				unreachable[w] &= ~region[w];
 			}
 		}
-		return enabledTiles;
+		// The remaining tiles
+		return new CoordinateSet(state.geometry, new SquareSet(unreachable));
 	}
 
 	/**
@@ -377,24 +645,42 @@ public class GameState {
 
 		final GameState duplicate = new GameState();
 
+		// Board geometry - shared reference
+		duplicate.geometry = state.geometry;
 		// Current player - straight copy
 		duplicate.currentPlayerIndex = state.currentPlayerIndex;
-		// Player coordinates - nested array copy
-		duplicate.playerCoords = new byte[state.playerCoords.length][];
-		for (int i = 0; i < duplicate.playerCoords.length; i++) {
-			duplicate.playerCoords[i] = Arrays.copyOf(state.playerCoords[i], state.playerCoords[i].length);
-		}
-		// Enabled tiles - nested array copy
-		duplicate.tileEnabled = new boolean[state.tileEnabled.length][];
-		for (int i = 0; i < duplicate.tileEnabled.length; i++) {
-			duplicate.tileEnabled[i] = Arrays.copyOf(state.tileEnabled[i], state.tileEnabled[i].length);
-		}
+		// Player squares - flat array copy
+		duplicate.playerSquares = state.playerSquares.clone();
+		// Enabled tiles - flat array copy
+		duplicate.tiles = state.tiles.clone();
 		// Turn phase - straight copy
 		duplicate.turnPhase = state.turnPhase;
+		// Hash - straight copy
+		duplicate.hash = state.hash;
 
 		return duplicate;
 	}
 
+	/**
+	 * Copy one game state over another, without allocation. Both states must be on boards of the same size with the
+	 * same number of players, e.g. one must have been duplicated from the other.
+	 *
+	 * @param source
+	 *            The game state to copy.
+	 * @param target
+	 *            The game state to overwrite.
+	 */
+	static void copy(final GameState source, final GameState target) {
+		if (source.geometry != target.geometry || source.playerSquares.length != target.playerSquares.length) {
+			throw new IllegalArgumentException("GameState::copy;incompatible_states");
+		}
+		target.currentPlayerIndex = source.currentPlayerIndex;
+		System.arraycopy(source.playerSquares, 0, target.playerSquares, 0, source.playerSquares.length);
+		System.arraycopy(source.tiles, 0, target.tiles, 0, source.tiles.length);
+		target.turnPhase = source.turnPhase;
+		target.hash = source.hash;
+	}
+
 	/**
 	 * Apply a move/shoot to a game state.
 	 * 
@@ -409,30 +695,159 @@ public class GameState {
 		final byte r = coord[1];
 		if (!isValidCoordinates(state, c, r)) {
 			throw new Error();
-		} else if (!isValidMove(state, coord)) {
+		} else {
+			return apply(state, getSquare(state, c, r));
+		}
+	}
+
+	/**
+	 * Apply a move/shoot, given as a square index, to a game state.
+	 * 
+	 * @param state
+	 *            The current game state.
+	 * @param square
+	 *            The square index of the move/shoot.
+	 * @return The new game state.
+	 */
+	public static GameState apply(final GameState state, final int square) {
+		if (!isValidMove(state, square)) {
 			throw new Error();
 		} else {
-			final GameState newState = duplicate(state);
-
-			switch (state.turnPhase) {
-			case PHASE_MOVE:
-				newState.playerCoords[newState.currentPlayerIndex][0] = c;
-				newState.playerCoords[newState.currentPlayerIndex][1] = r;
-				newState.turnPhase = PHASE_SHOOT;
-				break;
-			case PHASE_SHOOT:
-				newState.tileEnabled[c][r] = false;
-				newState.turnPhase = PHASE_MOVE;
-				// Next player
-				newState.currentPlayerIndex++;
-				newState.currentPlayerIndex %= getNumberOfPlayers(newState);
-				break;
-			default:
-				throw new Error();
-			}
+			return applyUnchecked(state, square);
+		}
+	}
+
+	/**
+	 * Apply a move/shoot to a game state without validating it. This is intended for callers that have already
+	 * validated the move, or that only ever apply moves produced by generateMoves, such as search code.
+	 * 
+	 * @param state
+	 *            The current game state.
+	 * @param square
+	 *            The square index of the move/shoot, which must be a valid move.
+	 * @return The new game state.
+	 */
+	public static GameState applyUnchecked(final GameState state, final int square) {
+		final GameState newState = duplicate(state);
+		applyInPlace(newState, square);
+		return newState;
+	}
 
-			return newState;
+	/**
+	 * Apply a move/shoot to a game state in-place, recording the information needed to reverse it. No validation is
+	 * performed, so the square must be a valid move for the state, e.g. one produced by generateMoves. This method
+	 * performs no allocation, and together with unmake allows a single working state to be walked through a search.
+	 * 
+	 * @param state
+	 *            The game state, which is modified.
+	 * @param square
+	 *            The square index of the move/shoot.
+	 * @param undo
+	 *            The record in which to store the information required by unmake.
+	 */
+	public static void make(final GameState state, final int square, final UndoRecord undo) {
+		undo.turnPhase = state.turnPhase;
+		undo.currentPlayerIndex = state.currentPlayerIndex;
+		undo.hash = state.hash;
+		undo.square = state.turnPhase == PHASE_MOVE ? state.playerSquares[state.currentPlayerIndex] : square;
+		applyInPlace(state, square);
+	}
+
+	/**
+	 * Reverse a move/shoot previously applied by make, restoring the state exactly. Actions must be unmade in the
+	 * reverse order to that in which they were made.
+	 * 
+	 * @param state
+	 *            The game state, which is modified.
+	 * @param undo
+	 *            The record written when the action was made.
+	 */
+	public static void unmake(final GameState state, final UndoRecord undo) {
+		switch (undo.turnPhase) {
+		case PHASE_MOVE:
+			// Move the player back
+			state.playerSquares[undo.currentPlayerIndex] = (short) undo.square;
+			break;
+		case PHASE_SHOOT:
+			// Re-enable the tile
+			setBit(state.tiles, undo.square);
+			break;
+		default:
+			throw new Error();
+		}
+		state.turnPhase = undo.turnPhase;
+		state.currentPlayerIndex = undo.currentPlayerIndex;
+		state.hash = undo.hash;
+	}
+
+	/**
+	 * Internal method to apply a move/shoot to a game state, with no validation.
+	 * 
+	 * @param state
+	 *            The game state, which is modified.
+	 * @param square
+	 *            The square index of the move/shoot.
+	 */
+	private static void applyInPlace(final GameState state, final int square) {
+		switch (state.turnPhase) {
+		case PHASE_MOVE:
+			final int player = state.currentPlayerIndex;
+			state.hash ^= Zobrist.player(player, state.playerSquares[player]) ^ Zobrist.player(player, square);
+			state.playerSquares[player] = (short) square;
+			state.turnPhase = PHASE_SHOOT;
+			state.hash ^= Zobrist.SHOOT_PHASE;
+			break;
+		case PHASE_SHOOT:
+			clearBit(state.tiles, square);
+			state.hash ^= Zobrist.tile(square);
+			state.turnPhase = PHASE_MOVE;
+			state.hash ^= Zobrist.SHOOT_PHASE;
+			// Next player
+			state.hash ^= Zobrist.currentPlayer(state.currentPlayerIndex);
+			state.currentPlayerIndex++;
+			state.currentPlayerIndex %= getNumberOfPlayers(state);
+			state.hash ^= Zobrist.currentPlayer(state.currentPlayerIndex);
+			break;
+		default:
+			throw new Error();
+		}
+	}
+
+	/**
+	 * Return the 64-bit Zobrist hash of a state. The hash covers enabled tiles, player squares, the current player and
+	 * the turn phase. It is maintained incrementally, so this method is O(1). Equal states always have equal hashes;
+	 * unequal states have equal hashes with negligible probability.
+	 * 
+	 * @param state
+	 *            The game state.
+	 * @return The hash.
+	 */
+	public static long hash(final GameState state) {
+		return state.hash;
+	}
+
+	/**
+	 * Calculate the Zobrist hash of a state from scratch.
+	 * 
+	 * @param state
+	 *            The game state.
+	 * @return The hash.
+	 */
+	static long computeHash(final GameState state) {
+		long hash = 0;
+		for (int square = 0; square < getNumberOfSquares(state); square++) {
+			if (isBitSet(state.tiles, square)) {
+				hash ^= Zobrist.tile(square);
+			}
+		}
+		for (int player = 0; player < state.playerSquares.length; player++) {
+			hash ^= Zobrist.player(player, state.playerSquares[player]);
+		}
+		hash ^= Zobrist.currentPlayer(state.currentPlayerIndex);
+		if (state.turnPhase == PHASE_SHOOT) {
+			hash ^= Zobrist.SHOOT_PHASE;
 		}
+		return hash;
 	}
 
 	/**
@@ -456,11 +871,11 @@ public class GameState {
 			return false;
 		}
 
+		final long[] region = new long[state.tiles.length];
 		for (int player = 0; player < numberOfPlayers - 1; player++) {
-			final Set<byte[]> reachableTiles = getReachableTiles(state, player);
+			fillRegion(state, state.playerSquares[player], region);
 			for (int otherPlayer = player + 1; otherPlayer < numberOfPlayers; otherPlayer++) {
-				final byte[] otherCoord = getPlayerCoords(state, otherPlayer);
-				if (reachableTiles.contains(otherCoord)) {
+				if (isBitSet(region, state.playerSquares[otherPlayer])) {
 					return false;
 				}
 			}
@@ -488,7 +903,7 @@ public class GameState {
 		int mostReachable = 0;
 
 		for (int p = 0; p < getNumberOfPlayers(state); p++) {
-			int numberReachable = getReachableTiles(state, p).size();
+			int numberReachable = getReachableCount(state, p);
 
 			if (numberReachable > mostReachable) {
 				// This is the new top score
@@ -536,7 +951,7 @@ public class GameState {
 		int winningPlayer = -1;
 
 		for (int p = 0; p < getNumberOfPlayers(state); p++) {
-			int numberReachable = getReachableTiles(state, p).size();
+			int numberReachable = getReachableCount(state, p);
 
 			if (numberReachable > mostReachable) {
 				// This is the new top score
@@ -563,24 +978,219 @@ public class GameState {
 	}
 
 	/**
-	 * A Set that contains arrays of bytes and respects array equality rather than array referential equality, which
-	 * means arrays containing the same elements (in the same order!) are considered identical regardless of whether the
-	 * array references are pointing to the same objects.
+	 * Classify a position, determining in a single pass whether the game is ongoing, stalemated, drawn or won. This is
+	 * equivalent to calling isStalemate, isGameOver, isDraw and getWinningPlayer in turn, but fills each player's
+	 * region at most once rather than repeatedly.
+	 * 
+	 * @param state
+	 *            The game state.
+	 * @return The outcome.
+	 */
+	public static Outcome classify(final GameState state) {
+		final Outcome outcome = new Outcome(getNumberOfPlayers(state));
+		classify(state, outcome);
+		return outcome;
+	}
+
+	/**
+	 * Classify a position into an existing Outcome. Once the outcome has been used once, this performs no allocation.
+	 * 
+	 * @param state
+	 *            The game state.
+	 * @param outcome
+	 *            The outcome to fill in, which must have been created for the same number of players.
+	 * @return The outcome type, one of Outcome.ONGOING, Outcome.STALEMATE, Outcome.DRAW or Outcome.WIN.
+	 */
+	public static byte classify(final GameState state, final Outcome outcome) {
+
+		final int numberOfPlayers = getNumberOfPlayers(state);
+
+		if (outcome.region == null || outcome.region.length != state.tiles.length) {
+			outcome.region = new long[state.tiles.length];
+		}
+		final long[] region = outcome.region;
+
+		// One-player games are never "over"
+		boolean gameOver = numberOfPlayers > 1;
+
+		// Fill each player's region, stopping as soon as two players are found to share one
+		for (int player = 0; player < numberOfPlayers && gameOver; player++) {
+			outcome.territory[player] = fillRegion(state, state.playerSquares[player], region);
+			for (int otherPlayer = player + 1; otherPlayer < numberOfPlayers; otherPlayer++) {
+				if (isBitSet(region, state.playerSquares[otherPlayer])) {
+					gameOver = false;
+					break;
+				}
+			}
+		}
+
+		if (!gameOver) {
+			outcome.winner = -1;
+			outcome.type = hasValidMove(state, state.currentPlayerIndex) ? Outcome.ONGOING : Outcome.STALEMATE;
+		} else {
+			outcome.decideGameOver();
+		}
+
+		return outcome.type;
+	}
+
+	/**
+	 * Whether the specified player has at least one valid move. This only needs to inspect the immediately surrounding
+	 * tiles.
+	 * 
+	 * @param state
+	 *            The game state.
+	 * @param playerNumber
+	 *            The player index.
+	 * @return True if the player can move, false otherwise.
+	 */
+	static boolean hasValidMove(final GameState state, final int playerNumber) {
+		final BoardGeometry geometry = state.geometry;
+		final int square = state.playerSquares[playerNumber];
+		for (int n = geometry.neighbourStart[square]; n < geometry.neighbourStart[square + 1]; n++) {
+			final int newS = geometry.neighbours[n];
+			if (isBitSet(state.tiles, newS) && squareUnoccupied(state, newS)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * A Set of two-element byte arrays holding tile coordinates, backed by a SquareSet. Membership is by coordinate
+	 * value rather than array identity, so arrays containing the same elements (in the same order!) are considered
+	 * identical. This is a thin adapter for callers that work in coordinates; iterating allocates a new array per
+	 * element, while add, remove, contains and size are all O(1) bit operations, and removeAll and retainAll work a
+	 * word at a time when given another CoordinateSet.
 	 * 
 	 * @author Charlie
 	 */
-	static class CoordinateSet extends TreeSet<byte[]> {
-		/** Default serialVersionUID. */
-		private static final long serialVersionUID = 1L;
+	static class CoordinateSet extends AbstractSet<byte[]> {
+
+		/** The board geometry, used to convert between coordinates and square indices. */
+		private final BoardGeometry geometry;
+
+		/** The backing set of square indices. */
+		private final SquareSet squares;
+
+		/**
+		 * Construct a new CoordinateSet.
+		 * 
+		 * @param geometry
+		 *            The board geometry.
+		 * @param squares
+		 *            The backing set of square indices, which is not copied.
+		 */
+		CoordinateSet(final BoardGeometry geometry, final SquareSet squares) {
+			this.geometry = geometry;
+			this.squares = squares;
+		}
+
+		/**
+		 * Convert an object to a square index.
+		 * 
+		 * @param o
+		 *            The object.
+		 * @return The square index, or -1 if the object is not the coordinates of a tile on the board.
+		 */
+		private int toSquare(final Object o) {
+			if (!(o instanceof byte[])) {
+				return -1;
+			}
+			final byte[] coords = (byte[]) o;
+			if (coords.length != 2 || coords[0] < 0 || coords[0] >= geometry.columns || coords[1] < 0
+					|| coords[1] >= geometry.rows) {
+				return -1;
+			}
+			return coords[1] * geometry.columns + coords[0];
+		}
+
+		@Override
+		public boolean add(final byte[] coords) {
+			final int square = toSquare(coords);
+			if (square == -1) {
+				throw new IllegalArgumentException("CoordinateSet::add;invalid_coords");
+			}
+			return squares.add(square);
+		}
+
+		@Override
+		public boolean remove(final Object o) {
+			final int square = toSquare(o);
+			return square != -1 && squares.remove(square);
+		}
+
+		@Override
+		public boolean contains(final Object o) {
+			final int square = toSquare(o);
+			return square != -1 && squares.contains(square);
+		}
+
+		@Override
+		public int size() {
+			return squares.size();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return squares.isEmpty();
+		}
+
+		@Override
+		public void clear() {
+			squares.clear();
+		}
+
+		@Override
+		public boolean removeAll(final Collection<?> c) {
+			if (c instanceof CoordinateSet) {
+				return squares.removeAll(((CoordinateSet) c).squares);
+			}
+			return super.removeAll(c);
+		}
+
+		@Override
+		public boolean retainAll(final Collection<?> c) {
+			if (c instanceof CoordinateSet) {
+				return squares.retainAll(((CoordinateSet) c).squares);
+			}
+			return super.retainAll(c);
+		}
+
+		@Override
+		public Iterator<byte[]> iterator() {
+			return new Iterator<byte[]>() {
+
+				/** The next square to return, or -1 if there are none. */
+				private int next = squares.nextSquare(0);
+
+				/** The last square returned, or -1 if there is none to remove. */
+				private int last = -1;
+
+				@Override
+				public boolean hasNext() {
+					return next != -1;
+				}
 
-		/** Default constructor. */
-		public CoordinateSet() {
-			super(new Comparator<byte[]>() {
 				@Override
-				public int compare(byte[] o1, byte[] o2) {
-					return Arrays.equals(o1, o2) ? 0 : Arrays.hashCode(o1) - Arrays.hashCode(o2);
+				public byte[] next() {
+					if (next == -1) {
+						throw new NoSuchElementException();
+					}
+					last = next;
+					next = squares.nextSquare(next + 1);
+					return new byte[] { (byte) (last % geometry.columns), (byte) (last / geometry.columns) };
 				}
-			});
+
+				@Override
+				public void remove() {
+					if (last == -1) {
+						throw new IllegalStateException();
+					}
+					squares.remove(last);
+					last = -1;
+				}
+			};
 		}
 	}
 
@@ -594,4 +1204,19 @@ public class GameState {
 	public static byte getTurnPhase(final GameState state) {
 		return state.turnPhase;
 	}
+
+	/** Whether bit i of a bitboard is set. */
+	static boolean isBitSet(final long[] bits, final int i) {
+		return (bits[i >>> 6] & (1L << i)) != 0;
+	}
+
+	/** Set bit i of a bitboard. */
+	static void setBit(final long[] bits, final int i) {
+		bits[i >>> 6] |= 1L << i;
+	}
+
+	/** Clear bit i of a bitboard. */
+	static void clearBit(final long[] bits, final int i) {
+		bits[i >>> 6] &= ~(1L << i);
+	}
 }
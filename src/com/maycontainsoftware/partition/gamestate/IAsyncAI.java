@@ -1,5 +1,7 @@
 package com.maycontainsoftware.partition.gamestate;
 
+import java.util.concurrent.Future;
+
 /**
  * Interface for an AI that processes its turn asynchronously.
  * 
@@ -9,24 +11,71 @@ public interface IAsyncAI {
 
 	/**
 	 * Notification that the AI should start considering its next move. This method should return promptly, so
-	 * implementations should execute all logic in a separate thread.
+	 * implementations should execute all logic in a separate thread. Any earlier request that is still being thought
+	 * about is abandoned.
 	 * 
 	 * @param state
 	 *            The current game state.
+	 * @param budget
+	 *            The time the AI may spend.
+	 * @param generation
+	 *            A number identifying the request, which is passed back to the callback so that results that are no
+	 *            longer wanted can be recognized.
 	 * @param callback
 	 *            The callback to notify when thinking is complete.
 	 */
-	public void startThinking(final GameState state, final IThinkingCompleteCallback callback);
+	public void startThinking(final GameState state, final TurnBudget budget, final int generation,
+			final IThinkingCompleteCallback callback);
+
+	/**
+	 * Start the AI considering its next move, as with startThinking, but return the result as a Future. Any earlier
+	 * request that is still being thought about is abandoned. Cancelling the Future abandons this request.
+	 * 
+	 * @param state
+	 *            The current game state.
+	 * @param budget
+	 *            The time the AI may spend.
+	 * @param listener
+	 *            The listener to notify each time a better turn is found, or null.
+	 * @return The chosen turn. If the request is abandoned, the Future is cancelled.
+	 */
+	public Future<TurnDecision> think(final GameState state, final TurnBudget budget,
+			final IThinkingProgressListener listener);
 
 	/**
-	 * Get the chosen move instruction.
+	 * Get the best turn found so far for the request currently being thought about. A caller with a time limit may
+	 * take this as its answer, then cancel the request.
+	 * 
+	 * @return The best turn so far, or null if the AI has not yet found one, or doesn't report progress.
+	 */
+	public TurnDecision getBestSoFar();
+
+	/**
+	 * Notification that another player is about to consider their move, during which the AI may think ahead in
+	 * preparation for its own next turn. This method should return promptly. Pondering continues until it is cancelled
+	 * or the AI is asked to think, which abandons it, and produces no result. AIs that can't make use of the time may
+	 * do nothing.
+	 * 
+	 * @param state
+	 *            The current game state, awaiting a move by another player.
+	 */
+	public void startPondering(final GameState state);
+
+	/**
+	 * Abandon the current request, if any. The AI stops thinking as soon as it can, and the callback is not notified.
+	 * A result may still be delivered if thinking had already completed, so callbacks should check the generation.
+	 */
+	public void cancel();
+
+	/**
+	 * Get the chosen move instruction from the most recently completed request.
 	 * 
 	 * @return A two-element byte array containing coordinates of the move location.
 	 */
 	public byte[] getMove();
 
 	/**
-	 * Get the chosen shoot instruction.
+	 * Get the chosen shoot instruction from the most recently completed request.
 	 * 
 	 * @return A two-element byte array containing coordinates of the shoot location.
 	 */
@@ -41,7 +90,26 @@ public interface IAsyncAI {
 		/**
 		 * Notify the callback that thinking is complete. Note that this method will be executed from a separate thread,
 		 * so implementations will need to take that into account before processing any results.
+		 * 
+		 * @param generation
+		 *            The number identifying the request that has completed.
+		 */
+		public void thinkingComplete(final int generation);
+	}
+
+	/**
+	 * A listener for the progress of an AI's thinking.
+	 * 
+	 * @author Charlie
+	 */
+	public static interface IThinkingProgressListener {
+		/**
+		 * Notify the listener that a better turn has been found. Note that this method will be executed from a
+		 * separate thread, and should return promptly so as not to hold up the AI.
+		 * 
+		 * @param bestSoFar
+		 *            The best turn found so far.
 		 */
-		public void thinkingComplete();
+		public void progress(final TurnDecision bestSoFar);
 	}
 }
@@ -0,0 +1,20 @@
+package com.maycontainsoftware.partition.gamestate;
+
+/**
+ * An evaluator that scores a position by comparing immediate mobility: the number of moves available to the player,
+ * less the number available to its opponents.
+ * 
+ * @author Charlie
+ */
+public class MobilityEvaluator implements Evaluator {
+
+	@Override
+	public int evaluate(final GameState state, final int playerIndex) {
+		int score = 0;
+		for (int p = 0; p < GameState.getNumberOfPlayers(state); p++) {
+			final int mobility = GameState.countValidMoves(state, p);
+			score += p == playerIndex ? mobility : -mobility;
+		}
+		return score;
+	}
+}
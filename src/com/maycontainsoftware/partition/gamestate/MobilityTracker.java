@@ -0,0 +1,172 @@
+package com.maycontainsoftware.partition.gamestate;
+
+/**
+ * Maintains, for every square and direction, the number of open tiles (enabled and unoccupied) in a line from that
+ * square before the first blocked tile or the edge of the board. A player's mobility - the number of valid moves it has
+ * - is then the sum of the eight reaches from its square, which can be read without walking any rays.
+ * 
+ * When a tile is blocked or unblocked, the only reaches that can change are those of squares looking at it, i.e. the
+ * squares along each of its eight rays, looking back the other way. Each update therefore walks at most eight rays
+ * outwards from the changed square, stopping at the first blocked tile in each.
+ * 
+ * The tracker follows a game state through moves and shoots, and their reversal, so can be kept in step with
+ * GameState.make and GameState.unmake.
+ * 
+ * @author Charlie
+ */
+public class MobilityTracker {
+
+	/** The board geometry. */
+	private final BoardGeometry geometry;
+
+	/** Bitboard of open tiles - enabled and unoccupied. */
+	private final long[] open;
+
+	/** The reach of each square in each direction, indexed by (square * 8 + direction). */
+	private final int[] reach;
+
+	/**
+	 * Construct a new tracker, and initialise it from a game state.
+	 * 
+	 * @param state
+	 *            The game state.
+	 */
+	public MobilityTracker(final GameState state) {
+		geometry = state.geometry;
+		open = new long[geometry.words];
+		reach = new int[geometry.squares * BoardGeometry.NUMBER_OF_DIRECTIONS];
+		reset(state);
+	}
+
+	/**
+	 * Reinitialise the tracker from a game state.
+	 * 
+	 * @param state
+	 *            The game state, which must be on the same board as the one the tracker was constructed with.
+	 */
+	public void reset(final GameState state) {
+		System.arraycopy(state.tiles, 0, open, 0, open.length);
+		for (final short square : state.playerSquares) {
+			GameState.clearBit(open, square);
+		}
+
+		for (int ray = 0; ray < reach.length; ray++) {
+			int length = 0;
+			for (int i = geometry.rayStart[ray]; i < geometry.rayStart[ray + 1]; i++) {
+				if (!GameState.isBitSet(open, geometry.rays[i])) {
+					break;
+				}
+				length++;
+			}
+			reach[ray] = length;
+		}
+	}
+
+	/**
+	 * Record that a player has moved.
+	 * 
+	 * @param from
+	 *            The square index the player moved from.
+	 * @param to
+	 *            The square index the player moved to.
+	 */
+	public void move(final int from, final int to) {
+		unblock(from);
+		block(to);
+	}
+
+	/**
+	 * Record that a move has been reversed.
+	 * 
+	 * @param from
+	 *            The square index the player originally moved from, and has now returned to.
+	 * @param to
+	 *            The square index the player originally moved to.
+	 */
+	public void unmove(final int from, final int to) {
+		unblock(to);
+		block(from);
+	}
+
+	/**
+	 * Record that a tile has been shot.
+	 * 
+	 * @param square
+	 *            The square index shot.
+	 */
+	public void shoot(final int square) {
+		block(square);
+	}
+
+	/**
+	 * Record that a shoot has been reversed.
+	 * 
+	 * @param square
+	 *            The square index originally shot.
+	 */
+	public void unshoot(final int square) {
+		unblock(square);
+	}
+
+	/**
+	 * Get the mobility of a player; equivalent to GameState.countValidMoves.
+	 * 
+	 * @param state
+	 *            The game state the tracker is in step with, from which the player's square is taken.
+	 * @param playerIndex
+	 *            The player index.
+	 * @return The number of valid moves the player has.
+	 */
+	public int getMobility(final GameState state, final int playerIndex) {
+		final int base = state.playerSquares[playerIndex] * BoardGeometry.NUMBER_OF_DIRECTIONS;
+		int mobility = 0;
+		for (int d = 0; d < BoardGeometry.NUMBER_OF_DIRECTIONS; d++) {
+			mobility += reach[base + d];
+		}
+		return mobility;
+	}
+
+	/**
+	 * Mark an open tile as blocked. Squares looking at it in each direction now stop just short of it.
+	 * 
+	 * @param square
+	 *            The square index.
+	 */
+	private void block(final int square) {
+		GameState.clearBit(open, square);
+		for (int d = 0; d < BoardGeometry.NUMBER_OF_DIRECTIONS; d++) {
+			final int back = square * BoardGeometry.NUMBER_OF_DIRECTIONS + BoardGeometry.opposite(d);
+			int length = 0;
+			for (int i = geometry.rayStart[back]; i < geometry.rayStart[back + 1]; i++) {
+				final int s = geometry.rays[i];
+				reach[s * BoardGeometry.NUMBER_OF_DIRECTIONS + d] = length;
+				if (!GameState.isBitSet(open, s)) {
+					break;
+				}
+				length++;
+			}
+		}
+	}
+
+	/**
+	 * Mark a blocked tile as open. Squares looking at it in each direction now see past it, as far as it can see.
+	 * 
+	 * @param square
+	 *            The square index.
+	 */
+	private void unblock(final int square) {
+		GameState.setBit(open, square);
+		for (int d = 0; d < BoardGeometry.NUMBER_OF_DIRECTIONS; d++) {
+			final int back = square * BoardGeometry.NUMBER_OF_DIRECTIONS + BoardGeometry.opposite(d);
+			int length = reach[square * BoardGeometry.NUMBER_OF_DIRECTIONS + d] + 1;
+			for (int i = geometry.rayStart[back]; i < geometry.rayStart[back + 1]; i++) {
+				final int s = geometry.rays[i];
+				reach[s * BoardGeometry.NUMBER_OF_DIRECTIONS + d] = length;
+				if (!GameState.isBitSet(open, s)) {
+					break;
+				}
+				length++;
+			}
+		}
+	}
+}
@@ -0,0 +1,455 @@
+package com.maycontainsoftware.partition.gamestate;
+
+import java.util.Random;
+import java.util.concurrent.Future;
+
+/**
+ * A Monte Carlo Tree Search AI player, using UCT. Rather than evaluating every turn, this player repeatedly plays the
+ * game out at random, growing a tree of the most promising lines as it goes and steering further playouts towards
+ * them. This copes with the branching factors of the larger boards, where a turn may have thousands of move/shoot
+ * combinations, far better than exhaustive search.
+ * 
+ * The tree has a level per move and per shoot, rather than per turn, so that statistics for a move are shared between
+ * all the shoots that can follow it. Search is root-parallel: the thinking thread and the AIExecutor's helper threads
+ * each grow their own tree from the current position, and the trees' root statistics are combined at the end. Playouts
+ * walk a single working state through make and unmake, and track connectivity incrementally, so they perform no
+ * allocation.
+ * 
+ * Thinking stops when the soft limit of the turn's time budget is reached or, if one is set, when the iteration limit
+ * is reached. Iterations are short, so the soft limit is never overrun by much.
+ * 
+ * @author Charlie
+ */
+public class MonteCarloAsyncAI extends AsyncAI {
+
+	/** Tag for logging purposes. */
+	public static final String TAG = MonteCarloAsyncAI.class.getName();
+
+	/** Whether or not to output debug messages. */
+	private static final boolean DEBUG_LOG = false;
+
+	/** Iteration limit meaning "no limit". */
+	public static final int UNLIMITED_ITERATIONS = 0;
+
+	/** The UCT exploration constant. */
+	private static final double EXPLORATION = Math.sqrt(2);
+
+	/** The number of iterations between checks of the clock, less one. */
+	private static final int CLOCK_CHECK_MASK = 0x3F;
+
+	/** Node result for a position where the game continues. */
+	private static final int ONGOING = -2;
+
+	/** Node result for a drawn or stalemated game. */
+	private static final int DRAWN = -1;
+
+	/** This player's player number. */
+	private final int playerNumber;
+
+	/** The maximum number of iterations for each turn, across all threads, or UNLIMITED_ITERATIONS. */
+	private final int maximumIterations;
+
+	/** The number of threads to search with. */
+	private final int threads;
+
+	/**
+	 * Construct a new AI player, thinking for the whole time budget on all available processors.
+	 * 
+	 * @param playerNumber
+	 *            The AI player's number.
+	 */
+	public MonteCarloAsyncAI(final int playerNumber) {
+		this(playerNumber, UNLIMITED_ITERATIONS, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Construct a new AI player.
+	 * 
+	 * @param playerNumber
+	 *            The AI player's number.
+	 * @param maximumIterations
+	 *            The maximum number of iterations for each turn, across all threads, or UNLIMITED_ITERATIONS to think
+	 *            for the whole time budget.
+	 * @param threads
+	 *            The number of threads to search with. No more are used than the AIExecutor has helper threads, plus
+	 *            the thread thinking about the turn.
+	 */
+	public MonteCarloAsyncAI(final int playerNumber, final int maximumIterations, final int threads) {
+		this.playerNumber = playerNumber;
+		this.maximumIterations = maximumIterations;
+		this.threads = Math.max(1, threads);
+	}
+
+	@Override
+	protected void doThinking(final GameState state, final TurnBudget budget) {
+
+		// Check that the game is waiting for a move instruction
+		if (GameState.getTurnPhase(state) != GameState.PHASE_MOVE) {
+			throw new IllegalStateException(TAG + "[" + playerNumber + "]::doThinking;state.turnPhase="
+					+ GameState.getTurnPhase(state));
+		}
+
+		// Check that it's this player's turn
+		if (state.currentPlayerIndex != playerNumber) {
+			throw new IllegalStateException(TAG + "[" + playerNumber + "]::doThinking;state.currentPlayerIndex="
+					+ state.currentPlayerIndex);
+		}
+
+		// No more trees than there are threads to grow them
+		final int threads = Math.min(this.threads, 1 + AIExecutor.getHelperThreads());
+		final long deadline = System.currentTimeMillis() + budget.getSoftMillis();
+		final int iterationsPerWorker = maximumIterations == UNLIMITED_ITERATIONS ? UNLIMITED_ITERATIONS : Math.max(1,
+				(maximumIterations + threads - 1) / threads);
+
+		// Grow one tree per thread: the first on this thread, the rest on helper threads
+		final Worker[] workers = new Worker[threads];
+		final Future<?>[] helperResults = new Future<?>[threads - 1];
+		final long seed = System.nanoTime();
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Worker(this, state, seed + i, deadline, iterationsPerWorker);
+		}
+		for (int i = 1; i < threads; i++) {
+			helperResults[i - 1] = AIExecutor.help(workers[i]);
+		}
+		workers[0].run();
+		for (final Future<?> result : helperResults) {
+			// A tree that never started growing has no visits, so contributes nothing
+			AIExecutor.finish(result);
+		}
+
+		if (isCancelled()) {
+			// Nobody is interested in the result
+			return;
+		}
+
+		// Combine the trees: the most visited move, then the most visited shoot following it
+		final int squares = GameState.getNumberOfSquares(state);
+		final int[] moveVisits = new int[squares];
+		for (final Worker worker : workers) {
+			worker.root.addChildVisits(moveVisits);
+		}
+		final int chosenMove = mostVisited(moveVisits, workers[0].root.firstAction());
+
+		final int[] shootVisits = new int[squares];
+		for (final Worker worker : workers) {
+			final Node moveNode = worker.root.findChild(chosenMove);
+			if (moveNode != null) {
+				moveNode.addChildVisits(shootVisits);
+			}
+		}
+		final GameState afterMove = GameState.applyUnchecked(state, chosenMove);
+		final MoveList shoots = new MoveList(afterMove);
+		GameState.generateMoves(afterMove, shoots);
+		final int chosenShoot = mostVisited(shootVisits, shoots.get(0));
+
+		// Report the search effort, counting each playout as a node
+		long iterations = 0;
+		for (final Worker worker : workers) {
+			iterations += worker.root.visits;
+		}
+		reportProgress(state, chosenMove, chosenShoot, 0, iterations);
+
+		if (DEBUG_LOG) {
+			System.out.println(TAG + "::doThinking;iterations=" + iterations + ",move[" + chosenMove + "]="
+					+ moveVisits[chosenMove] + ",shoot[" + chosenShoot + "]=" + shootVisits[chosenShoot]);
+		}
+
+		move = GameState.getCoords(state, chosenMove);
+		shoot = GameState.getCoords(state, chosenShoot);
+	}
+
+	/**
+	 * @param visits
+	 *            Visit counts, indexed by square.
+	 * @param fallback
+	 *            The square to return if nothing was visited.
+	 * @return The most visited square.
+	 */
+	private static int mostVisited(final int[] visits, final int fallback) {
+		int best = fallback;
+		for (int square = 0; square < visits.length; square++) {
+			if (visits[square] > visits[best]) {
+				best = square;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * A node in a search tree, representing the position reached by a single move or shoot.
+	 * 
+	 * @author Charlie
+	 */
+	private static class Node {
+
+		/** The parent node, or null for the root. */
+		final Node parent;
+
+		/** The move or shoot leading to this node, as a square index. */
+		final int action;
+
+		/** The player who made the action, and from whose point of view reward is counted. */
+		final int mover;
+
+		/** The result of the game at this node: a winning player index, DRAWN or ONGOING. */
+		final int result;
+
+		/** Actions not yet expanded into children. Only the first untriedCount elements are valid. */
+		int[] untried;
+
+		/** The number of untried actions. */
+		int untriedCount;
+
+		/** Expanded children. Only the first childCount elements are valid. */
+		Node[] children;
+
+		/** The number of expanded children. */
+		int childCount;
+
+		/** The number of playouts through this node. */
+		int visits;
+
+		/** The total reward to the mover from playouts through this node. */
+		double reward;
+
+		public Node(final Node parent, final int action, final int mover, final int result) {
+			this.parent = parent;
+			this.action = action;
+			this.mover = mover;
+			this.result = result;
+		}
+
+		/**
+		 * Record the actions available from this node.
+		 * 
+		 * @param actions
+		 *            The available actions.
+		 */
+		void setUntried(final MoveList actions) {
+			untriedCount = actions.size();
+			untried = new int[untriedCount];
+			System.arraycopy(actions.moves, 0, untried, 0, untriedCount);
+			children = new Node[untriedCount];
+		}
+
+		/**
+		 * @return The child with the highest UCT value.
+		 */
+		Node select() {
+			final double logVisits = Math.log(visits);
+			Node best = null;
+			double bestValue = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < childCount; i++) {
+				final Node child = children[i];
+				final double value = child.reward / child.visits + EXPLORATION
+						* Math.sqrt(logVisits / child.visits);
+				if (value > bestValue) {
+					bestValue = value;
+					best = child;
+				}
+			}
+			return best;
+		}
+
+		/**
+		 * @param action
+		 *            An action, as a square index.
+		 * @return The child reached by the action, or null if it has not been expanded.
+		 */
+		Node findChild(final int action) {
+			for (int i = 0; i < childCount; i++) {
+				if (children[i].action == action) {
+					return children[i];
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * @return Some action available from this node.
+		 */
+		int firstAction() {
+			return childCount > 0 ? children[0].action : untried[0];
+		}
+
+		/**
+		 * Add the visit counts of this node's children to a running total.
+		 * 
+		 * @param visitsBySquare
+		 *            Visit counts, indexed by square.
+		 */
+		void addChildVisits(final int[] visitsBySquare) {
+			for (int i = 0; i < childCount; i++) {
+				visitsBySquare[children[i].action] += children[i].visits;
+			}
+		}
+	}
+
+	/**
+	 * Grows a single search tree, with its own working state and random number generator.
+	 * 
+	 * @author Charlie
+	 */
+	private static class Worker implements Runnable {
+
+		/** The AI player, polled for cancellation. */
+		private final AsyncAI owner;
+
+		/** The root of the tree. */
+		final Node root;
+
+		/** The working state, walked down the tree and through playouts, and back again. */
+		private final GameState working;
+
+		/** The time at which to stop. */
+		private final long deadline;
+
+		/** The maximum number of iterations, or UNLIMITED_ITERATIONS. */
+		private final int maximumIterations;
+
+		/** Source of randomness for expansion and playouts. */
+		private final Random random;
+
+		/** Reusable buffer of available actions. */
+		private final MoveList actions;
+
+		/** Records for reversing every action made in an iteration. */
+		private final UndoRecord[] undo;
+
+		/** The number of undo records in use. */
+		private int depth;
+
+		/** Reusable classification of positions. */
+		private final Outcome outcome;
+
+		/** Tracks connectivity through playouts, to detect the end of the game cheaply. */
+		private final ConnectivityTracker connectivity;
+
+		public Worker(final AsyncAI owner, final GameState state, final long seed, final long deadline,
+				final int maximumIterations) {
+			this.owner = owner;
+			this.working = GameState.duplicate(state);
+			this.deadline = deadline;
+			this.maximumIterations = maximumIterations;
+			this.random = new Random(seed);
+			this.actions = new MoveList(state);
+			this.outcome = new Outcome(GameState.getNumberOfPlayers(state));
+			this.connectivity = new ConnectivityTracker(state);
+
+			// Every action disables or occupies a tile, so the game can't last longer than two actions per square
+			undo = new UndoRecord[GameState.getNumberOfSquares(state) * 2 + 2];
+			for (int i = 0; i < undo.length; i++) {
+				undo[i] = new UndoRecord();
+			}
+
+			root = new Node(null, -1, -1, ONGOING);
+			GameState.generateMoves(working, actions);
+			root.setUntried(actions);
+		}
+
+		@Override
+		public void run() {
+			for (int i = 1; maximumIterations == UNLIMITED_ITERATIONS || i <= maximumIterations; i++) {
+				if ((i & CLOCK_CHECK_MASK) == 0 && (System.currentTimeMillis() >= deadline || owner.isCancelled())) {
+					break;
+				}
+				iterate();
+			}
+		}
+
+		/** Perform one iteration: select, expand, play out and back up. */
+		private void iterate() {
+
+			Node node = root;
+			depth = 0;
+
+			// Selection - descend through fully expanded nodes
+			while (node.result == ONGOING && node.untriedCount == 0) {
+				node = node.select();
+				GameState.make(working, node.action, undo[depth++]);
+			}
+
+			// Expansion - add one untried child
+			if (node.result == ONGOING) {
+				final int i = random.nextInt(node.untriedCount);
+				final int action = node.untried[i];
+				node.untried[i] = node.untried[--node.untriedCount];
+
+				final int mover = working.currentPlayerIndex;
+				final boolean shooting = GameState.getTurnPhase(working) == GameState.PHASE_SHOOT;
+				GameState.make(working, action, undo[depth++]);
+
+				final Node child = new Node(node, action, mover, shooting ? result(GameState.classify(working,
+						outcome)) : ONGOING);
+				if (child.result == ONGOING) {
+					GameState.generateMoves(working, actions);
+					child.setUntried(actions);
+				}
+				node.children[node.childCount++] = child;
+				node = child;
+			}
+
+			// Simulation
+			final int result = node.result == ONGOING ? playout() : node.result;
+
+			// Backpropagation
+			for (Node n = node; n != null; n = n.parent) {
+				n.visits++;
+				if (result == n.mover) {
+					n.reward += 1.0;
+				} else if (result == DRAWN) {
+					n.reward += 0.5;
+				}
+			}
+
+			// Restore the working state
+			while (depth > 0) {
+				GameState.unmake(working, undo[--depth]);
+			}
+		}
+
+		/**
+		 * Play the game out at random from the working state. Actions are left made, for the caller to unmake.
+		 * 
+		 * @return The result: a winning player index or DRAWN.
+		 */
+		private int playout() {
+			connectivity.reset(working);
+			while (true) {
+				final boolean shooting = GameState.getTurnPhase(working) == GameState.PHASE_SHOOT;
+				GameState.generateMoves(working, actions);
+				final int action = actions.get(random.nextInt(actions.size()));
+				GameState.make(working, action, undo[depth++]);
+
+				if (shooting) {
+					connectivity.shoot(working, action);
+					if (connectivity.isGameOver(working)) {
+						for (int p = 0; p < outcome.territory.length; p++) {
+							outcome.territory[p] = connectivity.getRegionSize(p);
+						}
+						outcome.decideGameOver();
+						return result(outcome.type);
+					} else if (!GameState.hasValidMove(working, working.currentPlayerIndex)) {
+						return DRAWN;
+					}
+				}
+			}
+		}
+
+		/**
+		 * @param type
+		 *            An outcome type, with the winner in the Worker's Outcome.
+		 * @return The corresponding node result.
+		 */
+		private int result(final byte type) {
+			switch (type) {
+			case Outcome.ONGOING:
+				return ONGOING;
+			case Outcome.WIN:
+				return outcome.getWinner();
+			default:
+				return DRAWN;
+			}
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package com.maycontainsoftware.partition.gamestate;
+
+import java.util.Arrays;
+
+/**
+ * A reusable buffer of moves, each encoded as the square index of the destination tile. Move generators write into a
+ * caller-supplied MoveList and return the number of moves written, so that code walking moves repeatedly (e.g. the AI)
+ * need not allocate anything once the buffer has grown to the largest move count seen.
+ * 
+ * @author Charlie
+ */
+public class MoveList {
+
+	/** The moves, as square indices. Only the first <code>size</code> elements are valid. */
+	int[] moves;
+
+	/** The number of moves held. */
+	int size;
+
+	/**
+	 * Construct a new MoveList.
+	 * 
+	 * @param capacity
+	 *            The initial capacity. The list will grow if required, but sizing it to the number of squares on the
+	 *            board guarantees that it never has to.
+	 */
+	public MoveList(final int capacity) {
+		moves = new int[Math.max(capacity, 1)];
+	}
+
+	/**
+	 * Construct a new MoveList large enough to hold any set of moves on the specified board.
+	 * 
+	 * @param state
+	 *            The game state.
+	 */
+	public MoveList(final GameState state) {
+		this(GameState.getNumberOfSquares(state));
+	}
+
+	/**
+	 * @return The number of moves held.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param i
+	 *            The index of the move in this list.
+	 * @return The move, as a square index.
+	 */
+	public int get(final int i) {
+		return moves[i];
+	}
+
+	/** Remove all moves from the list. */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Add a move to the list, growing the list if necessary.
+	 * 
+	 * @param square
+	 *            The move, as a square index.
+	 */
+	void add(final int square) {
+		if (size == moves.length) {
+			moves = Arrays.copyOf(moves, size * 2);
+		}
+		moves[size++] = square;
+	}
+
+	/**
+	 * Move a move to the front of the list, if present, so that it is examined first.
+	 * 
+	 * @param square
+	 *            The move, as a square index.
+	 * @return True if the move was present.
+	 */
+	boolean promote(final int square) {
+		for (int i = 0; i < size; i++) {
+			if (moves[i] == square) {
+				moves[i] = moves[0];
+				moves[0] = square;
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,106 @@
+package com.maycontainsoftware.partition.gamestate;
+
+/**
+ * The classification of a position, as determined by GameState.classify: whether the game is ongoing, stalemated,
+ * drawn or won, and if it is over, the winning player and the territory claimed by each player. An Outcome may be
+ * reused for successive classifications, in which case classifying performs no allocation.
+ * 
+ * @author Charlie
+ */
+public class Outcome {
+
+	// Defined outcome types
+
+	/** Constant to represent a game that is still in progress. */
+	public static final byte ONGOING = 0x1;
+
+	/** Constant to represent a game in which the current player cannot move. */
+	public static final byte STALEMATE = 0x2;
+
+	/** Constant to represent a game that is over, with the top score shared between players. */
+	public static final byte DRAW = 0x3;
+
+	/** Constant to represent a game that is over, with an outright winner. */
+	public static final byte WIN = 0x4;
+
+	/** The outcome type. */
+	byte type;
+
+	/** The winning player index, or -1 if there is no outright winner. */
+	int winner;
+
+	/** The territory claimed by each player. */
+	final int[] territory;
+
+	/** Scratch bitboard used when classifying, sized on first use. */
+	long[] region;
+
+	/**
+	 * Construct a new Outcome.
+	 * 
+	 * @param numberOfPlayers
+	 *            The number of players in the game.
+	 */
+	public Outcome(final int numberOfPlayers) {
+		territory = new int[numberOfPlayers];
+	}
+
+	/**
+	 * Set the outcome type and winner for a game that is over, from the territories already recorded. The game is a
+	 * draw if multiple players share the top score, otherwise the player with the top score wins.
+	 */
+	void decideGameOver() {
+		boolean draw = false;
+		int mostReachable = 0;
+		winner = -1;
+		for (int player = 0; player < territory.length; player++) {
+			final int numberReachable = territory[player];
+			if (numberReachable > mostReachable) {
+				mostReachable = numberReachable;
+				winner = player;
+				draw = false;
+			} else if (numberReachable == mostReachable) {
+				draw = true;
+			}
+		}
+		if (draw) {
+			winner = -1;
+			type = DRAW;
+		} else {
+			type = WIN;
+		}
+	}
+
+	/**
+	 * @return One of ONGOING, STALEMATE, DRAW or WIN.
+	 */
+	public byte getType() {
+		return type;
+	}
+
+	/**
+	 * @return Whether the game is over, i.e. drawn or won. As with GameState.isGameOver, a stalemate is not considered
+	 *         to be game over.
+	 */
+	public boolean isGameOver() {
+		return type == DRAW || type == WIN;
+	}
+
+	/**
+	 * @return The winning player index if the outcome is a WIN, or -1 otherwise.
+	 */
+	public int getWinner() {
+		return winner;
+	}
+
+	/**
+	 * Get the territory claimed by a player. This is only meaningful if the game is over.
+	 * 
+	 * @param playerIndex
+	 *            The player index.
+	 * @return The number of tiles reachable by the player.
+	 */
+	public int getTerritory(final int playerIndex) {
+		return territory[playerIndex];
+	}
+}
@@ -0,0 +1,591 @@
+package com.maycontainsoftware.partition.gamestate;
+
+import java.util.concurrent.Future;
+
+/**
+ * A searching AI player. Where the evaluating AIs look a single turn ahead, this player runs a negamax search with
+ * alpha-beta pruning over whole turns (a move followed by a shoot), deepening one turn at a time. No new iteration is
+ * started once the soft limit of the turn's time budget has passed, and the search is abandoned at the hard limit.
+ * Game-ending turns are scored exactly, preferring quicker wins and slower losses; other positions at the search
+ * horizon are scored by an Evaluator.
+ * 
+ * Results are recorded in a transposition table so that each iteration is ordered by the best turns found in the last.
+ * The best turn from the deepest completed iteration is always held, so the search can be stopped at any point.
+ * 
+ * With more than one thread, the player searches in the style known as Lazy SMP: helpers, run on the AIExecutor's
+ * helper threads, search the same position alongside the thread the AI is thinking on, sharing nothing but the
+ * transposition table. The helpers never decide the turn themselves, but the table entries they leave behind let the
+ * main search cut off sooner and order its turns better, so it reaches further in the same time.
+ * 
+ * While another player is deciding, the player can ponder: it searches the other player's position, filling the
+ * transposition table with its replies to every turn the other player might take. When the real position turns out to
+ * have been searched, the early iterations are answered from the table, and the player answers in a fraction of its
+ * usual time.
+ * 
+ * The search assumes two players. With more, each opponent is simply treated as trying to minimize this player's
+ * score.
+ * 
+ * @author Charlie
+ */
+public class SearchingAsyncAI extends AsyncAI {
+
+	/** Tag for logging purposes. */
+	public static final String TAG = SearchingAsyncAI.class.getName();
+
+	/** Whether or not to output debug messages. */
+	private static final boolean DEBUG_LOG = false;
+
+	/** The memory budget for the transposition table, in megabytes. */
+	private static final int TABLE_MEGABYTES = 8;
+
+	/** The maximum number of turns searched ahead. */
+	private static final int MAX_PLY = SearchArena.MAX_DEPTH;
+
+	/** The score of a win on the current turn. Wins further away score less. */
+	static final int WIN_SCORE = 30000;
+
+	/** Scores beyond this magnitude are wins or losses. */
+	private static final int WIN_THRESHOLD = WIN_SCORE - MAX_PLY;
+
+	/** The score of a drawn or stalemated game. */
+	private static final int DRAW_SCORE = 0;
+
+	/** A score beyond any real score. */
+	private static final int INFINITY = WIN_SCORE + 1;
+
+	/** Encoding of "no turn". A real turn can never be zero, as a player can't shoot the square it has moved to. */
+	private static final int NO_TURN = 0;
+
+	/** The longest time spent pondering, in milliseconds. Limits battery drain if the other player walks away. */
+	private static final long PONDER_BUDGET_MILLIS = 30000;
+
+	/** The least depth to which the root must have been searched, while pondering, to count as a ponder hit. */
+	private static final int PONDER_HIT_DEPTH = 2;
+
+	/** The fraction of the usual time budget spent on a ponder hit. */
+	private static final int PONDER_HIT_DIVISOR = 4;
+
+	/** The number of nodes between checks of the clock, less one. */
+	private static final int CLOCK_CHECK_MASK = 0xFF;
+
+	/** This player's player number. */
+	private final int playerNumber;
+
+	/** The number of threads to search with, including the thread the AI is thinking on. */
+	private final int threads;
+
+	/** The transposition table, kept between turns, and shared by every thread searching. */
+	private final TranspositionTable table = new TranspositionTable(TABLE_MEGABYTES);
+
+	/** The board geometry the searchers were created for. */
+	private BoardGeometry geometry;
+
+	/** The searchers, one per thread. The first runs on the thread the AI is thinking on, and decides the turn. */
+	private Searcher[] searchers;
+
+	/** The time after which no new iteration is started. */
+	private long softDeadline;
+
+	/** The time at which the search must stop. */
+	private long deadline;
+
+	/** Whether the transposition table holds the results of pondering, with no search since. */
+	private boolean pondered;
+
+	/** Whether the helpers should stop, because the first searcher has decided the turn. */
+	private volatile boolean stopped;
+
+	/**
+	 * Construct a new AI player, searching on all available processors.
+	 * 
+	 * @param playerNumber
+	 *            The AI player's number.
+	 */
+	public SearchingAsyncAI(final int playerNumber) {
+		this(playerNumber, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Construct a new AI player.
+	 * 
+	 * @param playerNumber
+	 *            The AI player's number.
+	 * @param threads
+	 *            The number of threads to search with. With more than one, the extra threads search as helpers, on the
+	 *            AIExecutor's helper threads, so no more are used than there are helper threads.
+	 */
+	public SearchingAsyncAI(final int playerNumber, final int threads) {
+		this.playerNumber = playerNumber;
+		this.threads = Math.max(1, threads);
+	}
+
+	@Override
+	protected void doThinking(final GameState state, final TurnBudget budget) {
+
+		// Check that the game is waiting for a move instruction
+		if (GameState.getTurnPhase(state) != GameState.PHASE_MOVE) {
+			throw new IllegalStateException(TAG + "[" + playerNumber + "]::doThinking;state.turnPhase="
+					+ GameState.getTurnPhase(state));
+		}
+
+		// Check that it's this player's turn
+		if (state.currentPlayerIndex != playerNumber) {
+			throw new IllegalStateException(TAG + "[" + playerNumber + "]::doThinking;state.currentPlayerIndex="
+					+ state.currentPlayerIndex);
+		}
+
+		// If this position was searched deeply by the ponder search just finished, most of the work is already done.
+		// Entries left from this player's own earlier searches don't count, as they were stored in older generations.
+		final long entry = pondered && geometry == state.geometry ? table.probe(GameState.hash(state))
+				: TranspositionTable.MISS;
+		final boolean ponderHit = entry != TranspositionTable.MISS && table.isCurrent(entry)
+				&& TranspositionTable.getDepth(entry) >= PONDER_HIT_DEPTH;
+		pondered = false;
+
+		setup(state);
+		final long now = System.currentTimeMillis();
+		final int divisor = ponderHit ? PONDER_HIT_DIVISOR : 1;
+		softDeadline = now + budget.getSoftMillis() / divisor;
+		deadline = now + budget.getHardMillis() / divisor;
+
+		if (DEBUG_LOG) {
+			System.out.println(TAG + "::doThinking;ponderHit=" + ponderHit);
+		}
+
+		// Start the helpers, search on this thread until the turn is decided, then stop the helpers. Helpers that
+		// haven't started by then, because the helper threads were busy, are simply withdrawn.
+		final Future<?>[] helperResults = new Future<?>[searchers.length - 1];
+		for (int i = 0; i < helperResults.length; i++) {
+			searchers[i + 1].root = state;
+			helperResults[i] = AIExecutor.help(searchers[i + 1]);
+		}
+		final Searcher main = searchers[0];
+		main.deepen(state, true);
+		stopped = true;
+		for (int i = 0; i < helperResults.length; i++) {
+			AIExecutor.finish(helperResults[i]);
+			searchers[i + 1].root = null;
+		}
+
+		// Report the effort of the unfinished iteration and of the helpers
+		final long nodes = totalNodes();
+		if (nodes != main.reportedNodes) {
+			reportProgress(state, main.bestTurn >>> 16, main.bestTurn & 0xFFFF, main.completedDepth, nodes);
+		}
+
+		if (DEBUG_LOG) {
+			System.out.println(TAG + "::doThinking;threads=" + searchers.length + ",nodes=" + nodes);
+		}
+
+		move = GameState.getCoords(state, main.bestTurn >>> 16);
+		shoot = GameState.getCoords(state, main.bestTurn & 0xFFFF);
+	}
+
+	@Override
+	protected void doPondering(final GameState state) {
+
+		// Nothing to ponder if the game is over or the other player has no moves
+		if (GameState.getTurnPhase(state) != GameState.PHASE_MOVE
+				|| GameState.countValidMoves(state, state.currentPlayerIndex) == 0) {
+			return;
+		}
+
+		setup(state);
+		deadline = System.currentTimeMillis() + PONDER_BUDGET_MILLIS;
+		softDeadline = deadline;
+
+		// Ponder on this thread alone, so as not to tie up every processor while the other player is deciding
+		searchers[0].deepen(state, false);
+		pondered = true;
+
+		if (DEBUG_LOG) {
+			System.out.println(TAG + "::doPondering;nodes=" + searchers[0].nodes);
+		}
+	}
+
+	/**
+	 * Prepare for a new search, creating the searchers if this is the first search on this board.
+	 * 
+	 * @param state
+	 *            The game state to be searched.
+	 */
+	private void setup(final GameState state) {
+		if (geometry != state.geometry) {
+			geometry = state.geometry;
+
+			// No more helpers than there are helper threads to run them
+			searchers = new Searcher[Math.min(threads, 1 + AIExecutor.getHelperThreads())];
+			for (int i = 0; i < searchers.length; i++) {
+				searchers[i] = new Searcher(i, new TerritoryEvaluator(state));
+			}
+			table.clear();
+		}
+		for (final Searcher searcher : searchers) {
+			searcher.publishedNodes = 0;
+		}
+		table.newSearch();
+		stopped = false;
+	}
+
+	/**
+	 * @return The number of positions searched in this turn, by all searchers. Counts from the helpers may lag a little
+	 *         behind while they are still searching.
+	 */
+	private long totalNodes() {
+		long total = searchers[0].nodes;
+		for (int i = 1; i < searchers.length; i++) {
+			total += searchers[i].publishedNodes;
+		}
+		return total;
+	}
+
+	/**
+	 * Get the order in which to examine a list of moves. The first move, the hash move, is always examined first; the
+	 * rest are rotated by a shift, so that searchers with different shifts examine them in different orders.
+	 * 
+	 * @param i
+	 *            The position in the order.
+	 * @param size
+	 *            The number of moves.
+	 * @param shift
+	 *            The rotation, 0 for the order the moves were generated in.
+	 * @return The index of the move to examine at position i.
+	 */
+	private static int order(final int i, final int size, final int shift) {
+		if (i == 0 || shift == 0 || size < 3) {
+			return i;
+		}
+		return 1 + (i - 1 + shift) % (size - 1);
+	}
+
+	/**
+	 * One thread's share of the search. Every searcher searches the same root, sharing only the transposition table.
+	 * The first searcher decides the turn; the others are helpers, whose only purpose is to fill the table with results
+	 * that the first will find. Helpers start one turn deeper in alternate cases, and order moves differently at every
+	 * ply, so that they don't all search the same positions in step. They ignore the soft limit, searching until the
+	 * first searcher has decided.
+	 * 
+	 * A searcher walks a single working state through make and unmake, with per-ply storage taken from its thread's
+	 * SearchArena.
+	 * 
+	 * @author Charlie
+	 */
+	private final class Searcher implements Runnable {
+
+		/** The searcher's number. 0 for the searcher that decides the turn; helpers count up from 1. */
+		private final int index;
+
+		/** The evaluator used for positions at the search horizon. Evaluators are not thread-safe, so not shared. */
+		private final Evaluator evaluator;
+
+		/** The game state to be searched by a helper. */
+		GameState root;
+
+		/** Working storage for the current search. */
+		private SearchArena arena;
+
+		/** Reusable classification of positions, from the arena. */
+		private Outcome outcome;
+
+		/** The number of positions searched in this turn. */
+		long nodes;
+
+		/** The number of positions searched, as last published for other threads to read. */
+		volatile long publishedNodes;
+
+		/** The number of positions searched when progress was last reported. */
+		long reportedNodes;
+
+		/** Whether the current iteration ran out of time or was cancelled. */
+		private boolean aborted;
+
+		/** The best turn from the deepest completed iteration, encoded as (move << 16 | shoot). */
+		int bestTurn;
+
+		/** The best turn found so far in the current iteration. */
+		private int iterationTurn;
+
+		/** The depth of the deepest completed iteration. */
+		int completedDepth;
+
+		public Searcher(final int index, final Evaluator evaluator) {
+			this.index = index;
+			this.evaluator = evaluator;
+		}
+
+		@Override
+		public void run() {
+			deepen(root, false);
+		}
+
+		/**
+		 * Search a position with iterative deepening, until the search runs out of time, is cancelled, or finds the
+		 * result of the game. The best turn is left in bestTurn.
+		 * 
+		 * @param state
+		 *            The game state to be searched, awaiting a move.
+		 * @param report
+		 *            Whether to report progress.
+		 */
+		void deepen(final GameState state, final boolean report) {
+
+			arena = SearchArena.get(state);
+			outcome = arena.outcome();
+			nodes = 0;
+			publishedNodes = 0;
+			reportedNodes = 0;
+			aborted = false;
+			completedDepth = 0;
+
+			// Working copy of the state, through which turns are made and unmade
+			final GameState working = arena.working(state);
+
+			// Fall back on the first legal turn, in case not even one iteration completes
+			bestTurn = firstTurn(working);
+			if (report) {
+				report(state);
+			}
+
+			// The game can't last longer than it takes to shoot every tile
+			final int maximumDepth = Math.min(MAX_PLY, GameState.countEnabledTiles(state));
+
+			// Alternate helpers start a turn deeper
+			for (int depth = 1 + (index & 1); depth <= maximumDepth; depth++) {
+				iterationTurn = NO_TURN;
+				final int score = search(working, depth, -INFINITY, INFINITY, 0);
+
+				if (iterationTurn != NO_TURN) {
+					// Even a partial iteration can be trusted - the previous best turn is searched first, and anything
+					// replacing it has been proven better
+					bestTurn = iterationTurn;
+				}
+				if (!aborted) {
+					completedDepth = depth;
+				}
+
+				if (DEBUG_LOG) {
+					System.out.println(TAG + "[" + index + "]::deepen;depth=" + depth + ",aborted=" + aborted
+							+ ",score=" + score + ",nodes=" + nodes + ",turn=" + (bestTurn >>> 16) + "/"
+							+ (bestTurn & 0xFFFF));
+				}
+
+				if (report && !aborted) {
+					report(state);
+				}
+
+				if (aborted || Math.abs(score) > WIN_THRESHOLD
+						|| (index == 0 && System.currentTimeMillis() >= softDeadline)) {
+					// Out of time, cancelled, or the result of the game is already known
+					break;
+				}
+			}
+
+			arena = null;
+			outcome = null;
+		}
+
+		/**
+		 * Report the best turn so far, along with the effort of every searcher.
+		 * 
+		 * @param state
+		 *            The game state being searched.
+		 */
+		private void report(final GameState state) {
+			reportedNodes = totalNodes();
+			reportProgress(state, bestTurn >>> 16, bestTurn & 0xFFFF, completedDepth, reportedNodes);
+		}
+
+		/**
+		 * @param state
+		 *            A game state, awaiting a move.
+		 * @return The first legal turn in the state.
+		 */
+		private int firstTurn(final GameState state) {
+			final SearchArena.Frame frame = arena.frame(0);
+			GameState.generateMoves(state, frame.moves);
+			final int move = frame.moves.get(0);
+			GameState.make(state, move, frame.moveUndo);
+			GameState.generateMoves(state, frame.shoots);
+			final int shoot = frame.shoots.get(0);
+			GameState.unmake(state, frame.moveUndo);
+			return move << 16 | shoot;
+		}
+
+		/**
+		 * Search a position awaiting a move.
+		 * 
+		 * @param state
+		 *            The working state, which is returned to its original state before this method returns.
+		 * @param depth
+		 *            The number of turns to search, at least 1.
+		 * @param alpha
+		 *            The score the player to move is already assured of.
+		 * @param beta
+		 *            The score beyond which the opponent will avoid this position.
+		 * @param ply
+		 *            The number of turns from the root.
+		 * @return The score, from the point of view of the player to move. Meaningless if the search was aborted.
+		 */
+		private int search(final GameState state, final int depth, int alpha, final int beta, final int ply) {
+
+			countNode();
+			if (aborted) {
+				return 0;
+			}
+
+			// Consult the transposition table
+			final long hash = GameState.hash(state);
+			final long entry = table.probe(hash);
+			int hashTurn = NO_TURN;
+			if (ply == 0) {
+				hashTurn = bestTurn;
+			} else if (entry != TranspositionTable.MISS) {
+				hashTurn = TranspositionTable.getMove(entry);
+				if (TranspositionTable.getDepth(entry) >= depth) {
+					final int score = fromTable(TranspositionTable.getScore(entry), ply);
+					switch (TranspositionTable.getBound(entry)) {
+					case TranspositionTable.BOUND_EXACT:
+						return score;
+					case TranspositionTable.BOUND_LOWER:
+						if (score >= beta) {
+							return score;
+						}
+						break;
+					case TranspositionTable.BOUND_UPPER:
+						if (score <= alpha) {
+							return score;
+						}
+						break;
+					}
+				}
+			}
+
+			final int originalAlpha = alpha;
+			final int side = state.currentPlayerIndex;
+			final SearchArena.Frame p = arena.frame(ply);
+			final int shift = index * (ply + 1);
+			int best = -INFINITY;
+			int bestHere = NO_TURN;
+			boolean cutoff = false;
+
+			// Search the hash turn first
+			GameState.generateMoves(state, p.moves);
+			p.moves.promote(hashTurn >>> 16);
+
+			for (int m = 0; m < p.moves.size() && !cutoff; m++) {
+				final int move = p.moves.get(order(m, p.moves.size(), shift));
+
+				GameState.make(state, move, p.moveUndo);
+				GameState.generateMoves(state, p.shoots);
+				if (move == hashTurn >>> 16) {
+					p.shoots.promote(hashTurn & 0xFFFF);
+				}
+				p.separators.analyse(state);
+
+				for (int s = 0; s < p.shoots.size() && !cutoff; s++) {
+					final int shoot = p.shoots.get(order(s, p.shoots.size(), shift));
+
+					GameState.make(state, shoot, p.shootUndo);
+					final int score;
+					switch (p.separators.classify(state, shoot, outcome)) {
+					case Outcome.WIN:
+						score = outcome.getWinner() == side ? WIN_SCORE - ply : -(WIN_SCORE - ply);
+						break;
+					case Outcome.DRAW:
+					case Outcome.STALEMATE:
+						score = DRAW_SCORE;
+						break;
+					default:
+						if (depth == 1) {
+							score = evaluator.evaluate(state, side);
+							countNode();
+						} else if (state.currentPlayerIndex == side) {
+							// Only one player - no change of perspective
+							score = search(state, depth - 1, alpha, beta, ply + 1);
+						} else {
+							score = -search(state, depth - 1, -beta, -alpha, ply + 1);
+						}
+						break;
+					}
+					GameState.unmake(state, p.shootUndo);
+
+					if (aborted) {
+						GameState.unmake(state, p.moveUndo);
+						return 0;
+					}
+
+					if (score > best) {
+						best = score;
+						bestHere = move << 16 | shoot;
+						if (ply == 0) {
+							iterationTurn = bestHere;
+						}
+					}
+					if (score > alpha) {
+						alpha = score;
+					}
+					cutoff = alpha >= beta;
+				}
+
+				GameState.unmake(state, p.moveUndo);
+			}
+
+			final byte bound = best <= originalAlpha ? TranspositionTable.BOUND_UPPER
+					: best >= beta ? TranspositionTable.BOUND_LOWER : TranspositionTable.BOUND_EXACT;
+			table.store(hash, depth, bound, toTable(best, ply), bestHere);
+
+			return best;
+		}
+
+		/**
+		 * Count a position searched, every so often publishing the count and checking whether the search must stop.
+		 */
+		private void countNode() {
+			if ((++nodes & CLOCK_CHECK_MASK) == 0) {
+				publishedNodes = nodes;
+				if (stopped || System.currentTimeMillis() >= deadline || isCancelled()) {
+					aborted = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Convert a score to be stored in the transposition table. Win and loss scores are relative to the root, so are
+	 * made relative to the position being stored instead.
+	 * 
+	 * @param score
+	 *            The score, relative to the root.
+	 * @param ply
+	 *            The ply of the position.
+	 * @return The score to store.
+	 */
+	private static int toTable(final int score, final int ply) {
+		if (score > WIN_THRESHOLD) {
+			return score + ply;
+		} else if (score < -WIN_THRESHOLD) {
+			return score - ply;
+		} else {
+			return score;
+		}
+	}
+
+	/**
+	 * Convert a score retrieved from the transposition table, reversing toTable.
+	 * 
+	 * @param score
+	 *            The stored score.
+	 * @param ply
+	 *            The ply of the position.
+	 * @return The score, relative to the root.
+	 */
+	private static int fromTable(final int score, final int ply) {
+		if (score > WIN_THRESHOLD) {
+			return score - ply;
+		} else if (score < -WIN_THRESHOLD) {
+			return score + ply;
+		} else {
+			return score;
+		}
+	}
+}
@@ -0,0 +1,252 @@
+package com.maycontainsoftware.partition.gamestate;
+
+/**
+ * Analysis of which shoots would end the game. A game ends when a shoot leaves every player isolated from every other,
+ * which can only happen if the tile shot is a cut vertex (articulation point) of the graph of enabled tiles, with
+ * tiles connected to their eight neighbours. This class finds all cut vertices with a single depth-first search using
+ * Tarjan's low-link method, and for each one works out which component each player would be left in and how large that
+ * component is. Winning, drawn and losing shoots can then be identified without applying each one and flood filling the
+ * result.
+ * 
+ * The search is iterative, and all working storage is allocated when the analysis is constructed, so an instance can
+ * be reused for any number of positions on boards of the same size without further allocation.
+ * 
+ * @author Charlie
+ */
+public class SeparatorAnalysis {
+
+	/** Component identifier for the part of the board still containing the search root. */
+	private static final int REST = -1;
+
+	/** The board geometry. */
+	private final BoardGeometry geometry;
+
+	/** The number of players. */
+	private final int numberOfPlayers;
+
+	/** Discovery time of each square in the search, or 0 if not yet discovered. */
+	private final int[] discovery;
+
+	/** Lowest discovery time reachable from each square's subtree via a single back edge. */
+	private final int[] low;
+
+	/** The number of squares in each square's subtree. */
+	private final int[] subtreeSize;
+
+	/** For each square, the total size of the subtrees that would be cut off by shooting it. */
+	private final int[] separatedSize;
+
+	/** Search stack of squares. */
+	private final int[] stackSquare;
+
+	/** Search stack of the next neighbour offset to examine for each stacked square. */
+	private final int[] stackNeighbour;
+
+	/**
+	 * For each square and player, the root of the subtree the player would be cut off in if the square were shot, or
+	 * REST. Indexed by (square * numberOfPlayers + player).
+	 */
+	private final int[] component;
+
+	/** For each square and player, the territory the player would be left with if the square were shot. */
+	private final int[] territory;
+
+	/** The squares whose shooting would isolate every player. */
+	private final SquareSet separators;
+
+	/** Whether the last position analysed had all players connected. */
+	private boolean connected;
+
+	/**
+	 * Construct a new analysis for boards of the same size as the specified state.
+	 * 
+	 * @param state
+	 *            A game state.
+	 */
+	public SeparatorAnalysis(final GameState state) {
+		geometry = state.geometry;
+		numberOfPlayers = GameState.getNumberOfPlayers(state);
+		final int squares = geometry.squares;
+		discovery = new int[squares];
+		low = new int[squares];
+		subtreeSize = new int[squares];
+		separatedSize = new int[squares];
+		stackSquare = new int[squares];
+		stackNeighbour = new int[squares];
+		component = new int[squares * numberOfPlayers];
+		territory = new int[squares * numberOfPlayers];
+		separators = new SquareSet(squares);
+	}
+
+	/**
+	 * Analyse a position. The search is rooted at the current player's square, which can never be shot.
+	 * 
+	 * @param state
+	 *            The game state.
+	 */
+	public void analyse(final GameState state) {
+
+		final int squares = geometry.squares;
+		for (int s = 0; s < squares; s++) {
+			discovery[s] = 0;
+			separatedSize[s] = 0;
+		}
+		for (int i = 0; i < component.length; i++) {
+			component[i] = REST;
+		}
+		separators.clear();
+
+		// Depth-first search from the current player
+		final int root = state.playerSquares[state.currentPlayerIndex];
+		int time = 0;
+		int top = 0;
+		discovery[root] = low[root] = ++time;
+		subtreeSize[root] = 1;
+		stackSquare[0] = root;
+		stackNeighbour[0] = geometry.neighbourStart[root];
+
+		while (top >= 0) {
+			final int v = stackSquare[top];
+			if (stackNeighbour[top] < geometry.neighbourStart[v + 1]) {
+				// Examine the next neighbour
+				final int w = geometry.neighbours[stackNeighbour[top]++];
+				if (!GameState.isBitSet(state.tiles, w)) {
+					continue;
+				}
+				if (discovery[w] == 0) {
+					// Tree edge - descend
+					discovery[w] = low[w] = ++time;
+					subtreeSize[w] = 1;
+					top++;
+					stackSquare[top] = w;
+					stackNeighbour[top] = geometry.neighbourStart[w];
+				} else if (discovery[w] < low[v]) {
+					// Back edge
+					low[v] = discovery[w];
+				}
+			} else {
+				// All neighbours examined - return to the parent
+				top--;
+				if (top >= 0) {
+					final int u = stackSquare[top];
+					subtreeSize[u] += subtreeSize[v];
+					if (low[v] < low[u]) {
+						low[u] = low[v];
+					}
+					if (low[v] >= discovery[u] && u != root) {
+						// Shooting u would cut off v's subtree
+						separatedSize[u] += subtreeSize[v];
+						for (int p = 0; p < numberOfPlayers; p++) {
+							final int d = discovery[state.playerSquares[p]];
+							if (d >= discovery[v] && d < discovery[v] + subtreeSize[v]) {
+								component[u * numberOfPlayers + p] = v;
+								territory[u * numberOfPlayers + p] = subtreeSize[v];
+							}
+						}
+					}
+				}
+			}
+		}
+
+		// If players are already isolated from one another, no shoot can change that
+		connected = true;
+		for (int p = 0; p < numberOfPlayers; p++) {
+			connected &= discovery[state.playerSquares[p]] != 0;
+		}
+		if (!connected || numberOfPlayers == 1) {
+			return;
+		}
+
+		// Determine which cut vertices isolate every player
+		final int total = subtreeSize[root];
+		for (int u = 0; u < squares; u++) {
+			if (separatedSize[u] == 0 || !GameState.squareUnoccupied(state, u)) {
+				continue;
+			}
+			final int base = u * numberOfPlayers;
+			boolean isolated = true;
+			for (int p = 0; p < numberOfPlayers; p++) {
+				if (component[base + p] == REST) {
+					territory[base + p] = total - 1 - separatedSize[u];
+				}
+				for (int q = 0; q < p && isolated; q++) {
+					isolated = component[base + p] != component[base + q];
+				}
+			}
+			if (isolated) {
+				separators.add(u);
+			}
+		}
+	}
+
+	/**
+	 * @return Whether all players were connected in the last position analysed. If not, the game is already over and
+	 *         no separators are reported.
+	 */
+	public boolean isConnected() {
+		return connected;
+	}
+
+	/**
+	 * @param square
+	 *            A square index.
+	 * @return Whether shooting the square would leave every player isolated, i.e. end the game.
+	 */
+	public boolean isSeparator(final int square) {
+		return separators.contains(square);
+	}
+
+	/**
+	 * @return The set of squares whose shooting would end the game. This set is reused by subsequent analyses.
+	 */
+	public SquareSet getSeparators() {
+		return separators;
+	}
+
+	/**
+	 * Get the territory a player would be left with if a separator were shot.
+	 * 
+	 * @param square
+	 *            A separator square index.
+	 * @param playerIndex
+	 *            The player index.
+	 * @return The number of tiles the player could reach.
+	 */
+	public int getTerritory(final int square, final int playerIndex) {
+		return territory[square * numberOfPlayers + playerIndex];
+	}
+
+	/**
+	 * Classify the position resulting from a shoot, using this analysis of the position before the shoot. Shoots that
+	 * end the game are classified entirely from the analysis. Otherwise the game continues, and only the next player's
+	 * immediate surroundings need to be checked for a stalemate.
+	 * 
+	 * @param stateAfterShoot
+	 *            The game state after the shoot has been applied.
+	 * @param shoot
+	 *            The square index shot.
+	 * @param outcome
+	 *            The outcome to fill in.
+	 * @return The outcome type, as per GameState.classify.
+	 */
+	public byte classify(final GameState stateAfterShoot, final int shoot, final Outcome outcome) {
+
+		if (!connected) {
+			// Nothing to go on - fall back to a full classification
+			return GameState.classify(stateAfterShoot, outcome);
+		}
+
+		if (!separators.contains(shoot)) {
+			outcome.winner = -1;
+			outcome.type = GameState.hasValidMove(stateAfterShoot, stateAfterShoot.currentPlayerIndex) ? Outcome.ONGOING
+					: Outcome.STALEMATE;
+			return outcome.type;
+		}
+
+		for (int p = 0; p < numberOfPlayers; p++) {
+			outcome.territory[p] = territory[shoot * numberOfPlayers + p];
+		}
+		outcome.decideGameOver();
+		return outcome.type;
+	}
+}
@@ -0,0 +1,177 @@
+package com.maycontainsoftware.partition.gamestate;
+
+/**
+ * A set of squares, keyed by square index and backed by a bitboard. Adding, removing and testing membership are O(1),
+ * bulk operations work a word at a time, and size is a population count. Iterate using nextSquare:
+ * 
+ * <pre>
+ * for (int s = set.nextSquare(0); s != -1; s = set.nextSquare(s + 1)) {
+ * 	...
+ * }
+ * </pre>
+ * 
+ * @author Charlie
+ */
+public class SquareSet {
+
+	/** The bitboard; square s is present if bit (s % 64) of word (s / 64) is set. */
+	final long[] bits;
+
+	/**
+	 * Construct a new, empty SquareSet.
+	 * 
+	 * @param numberOfSquares
+	 *            The number of squares on the board.
+	 */
+	public SquareSet(final int numberOfSquares) {
+		this(new long[(numberOfSquares + 63) >>> 6]);
+	}
+
+	/**
+	 * Construct a SquareSet backed by an existing bitboard. The bitboard is not copied.
+	 * 
+	 * @param bits
+	 *            The bitboard.
+	 */
+	SquareSet(final long[] bits) {
+		this.bits = bits;
+	}
+
+	/**
+	 * @param square
+	 *            The square index.
+	 * @return True if the square was not already present.
+	 */
+	public boolean add(final int square) {
+		final long bit = 1L << square;
+		final long word = bits[square >>> 6];
+		bits[square >>> 6] = word | bit;
+		return (word & bit) == 0;
+	}
+
+	/**
+	 * @param square
+	 *            The square index.
+	 * @return True if the square was present.
+	 */
+	public boolean remove(final int square) {
+		final long bit = 1L << square;
+		final long word = bits[square >>> 6];
+		bits[square >>> 6] = word & ~bit;
+		return (word & bit) != 0;
+	}
+
+	/**
+	 * @param square
+	 *            The square index.
+	 * @return True if the square is present.
+	 */
+	public boolean contains(final int square) {
+		return (bits[square >>> 6] & (1L << square)) != 0;
+	}
+
+	/**
+	 * @return The number of squares present.
+	 */
+	public int size() {
+		int size = 0;
+		for (final long word : bits) {
+			size += Long.bitCount(word);
+		}
+		return size;
+	}
+
+	/**
+	 * @return True if no squares are present.
+	 */
+	public boolean isEmpty() {
+		for (final long word : bits) {
+			if (word != 0L) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Remove all squares. */
+	public void clear() {
+		for (int i = 0; i < bits.length; i++) {
+			bits[i] = 0L;
+		}
+	}
+
+	/**
+	 * Add all squares present in another set on the same board.
+	 * 
+	 * @param other
+	 *            The other set.
+	 * @return True if this set changed.
+	 */
+	public boolean addAll(final SquareSet other) {
+		boolean changed = false;
+		for (int i = 0; i < bits.length; i++) {
+			final long word = bits[i] | other.bits[i];
+			changed |= word != bits[i];
+			bits[i] = word;
+		}
+		return changed;
+	}
+
+	/**
+	 * Remove all squares present in another set on the same board.
+	 * 
+	 * @param other
+	 *            The other set.
+	 * @return True if this set changed.
+	 */
+	public boolean removeAll(final SquareSet other) {
+		boolean changed = false;
+		for (int i = 0; i < bits.length; i++) {
+			final long word = bits[i] & ~other.bits[i];
+			changed |= word != bits[i];
+			bits[i] = word;
+		}
+		return changed;
+	}
+
+	/**
+	 * Remove all squares not present in another set on the same board.
+	 * 
+	 * @param other
+	 *            The other set.
+	 * @return True if this set changed.
+	 */
+	public boolean retainAll(final SquareSet other) {
+		boolean changed = false;
+		for (int i = 0; i < bits.length; i++) {
+			final long word = bits[i] & other.bits[i];
+			changed |= word != bits[i];
+			bits[i] = word;
+		}
+		return changed;
+	}
+
+	/**
+	 * Find the first square present at or after a given square index.
+	 * 
+	 * @param from
+	 *            The square index to start from.
+	 * @return The square index, or -1 if there is none.
+	 */
+	public int nextSquare(final int from) {
+		int i = from >>> 6;
+		if (i >= bits.length) {
+			return -1;
+		}
+		long word = bits[i] & (-1L << from);
+		while (true) {
+			if (word != 0L) {
+				return (i << 6) + Long.numberOfTrailingZeros(word);
+			}
+			if (++i == bits.length) {
+				return -1;
+			}
+			word = bits[i];
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package com.maycontainsoftware.partition.gamestate;
+
+/**
+ * An evaluator that estimates how the board will be divided between players. A breadth-first search from each player
+ * finds the fewest moves needed to reach every open tile, and each tile is credited to the player able to get there
+ * first. Ties are credited to nobody.
+ * 
+ * Two distance measures are used. Queen distance counts moves as players make them, any distance in a straight line,
+ * and best reflects who can claim contested space early in the game. King distance counts single steps to adjacent
+ * tiles, and better reflects who controls space once the board has closed up. The score combines the two.
+ * 
+ * All working storage is allocated when the evaluator is constructed, so evaluation performs no allocation.
+ * 
+ * @author Charlie
+ */
+public class TerritoryEvaluator implements Evaluator {
+
+	/** Distance of a tile that cannot be reached. */
+	private static final int UNREACHED = Integer.MAX_VALUE;
+
+	/** Weight applied to the queen-distance territory balance. */
+	private static final int QUEEN_WEIGHT = 2;
+
+	/** Weight applied to the king-distance territory balance. */
+	private static final int KING_WEIGHT = 1;
+
+	/** The board geometry. */
+	private final BoardGeometry geometry;
+
+	/** Bitboard of open tiles - enabled and unoccupied. */
+	private final long[] open;
+
+	/** Queen distance from each player to each square, indexed by (player * squares + square). */
+	private final int[] queenDistance;
+
+	/** King distance from each player to each square, indexed by (player * squares + square). */
+	private final int[] kingDistance;
+
+	/** Breadth-first search queue. */
+	private final int[] queue;
+
+	/**
+	 * Construct a new evaluator for boards of the same size as the specified state.
+	 * 
+	 * @param state
+	 *            A game state.
+	 */
+	public TerritoryEvaluator(final GameState state) {
+		geometry = state.geometry;
+		open = new long[geometry.words];
+		queenDistance = new int[GameState.getNumberOfPlayers(state) * geometry.squares];
+		kingDistance = new int[queenDistance.length];
+		queue = new int[geometry.squares];
+	}
+
+	@Override
+	public int evaluate(final GameState state, final int playerIndex) {
+
+		System.arraycopy(state.tiles, 0, open, 0, open.length);
+		for (final short square : state.playerSquares) {
+			GameState.clearBit(open, square);
+		}
+
+		final int numberOfPlayers = GameState.getNumberOfPlayers(state);
+		for (int p = 0; p < numberOfPlayers; p++) {
+			queenSearch(state.playerSquares[p], p * geometry.squares);
+			kingSearch(state.playerSquares[p], p * geometry.squares);
+		}
+
+		// Credit each open tile to whoever reaches it first
+		int queenBalance = 0;
+		int kingBalance = 0;
+		for (int s = 0; s < geometry.squares; s++) {
+			if (!GameState.isBitSet(open, s)) {
+				continue;
+			}
+			queenBalance += credit(queenDistance, s, playerIndex, numberOfPlayers);
+			kingBalance += credit(kingDistance, s, playerIndex, numberOfPlayers);
+		}
+
+		return QUEEN_WEIGHT * queenBalance + KING_WEIGHT * kingBalance;
+	}
+
+	/**
+	 * Determine who a square is credited to.
+	 * 
+	 * @param distance
+	 *            The distance table.
+	 * @param square
+	 *            The square index.
+	 * @param playerIndex
+	 *            The player the evaluation is for.
+	 * @param numberOfPlayers
+	 *            The number of players.
+	 * @return 1 if the player reaches the square strictly first, -1 if an opponent does, 0 otherwise.
+	 */
+	private int credit(final int[] distance, final int square, final int playerIndex, final int numberOfPlayers) {
+		final int own = distance[playerIndex * geometry.squares + square];
+		int opponent = UNREACHED;
+		for (int p = 0; p < numberOfPlayers; p++) {
+			if (p != playerIndex) {
+				opponent = Math.min(opponent, distance[p * geometry.squares + square]);
+			}
+		}
+		if (own < opponent) {
+			return 1;
+		} else if (opponent < own) {
+			return -1;
+		} else {
+			return 0;
+		}
+	}
+
+	/**
+	 * Fill in queen distances from a square. Walking a ray can stop at any square already reached in no more moves
+	 * than the square being expanded, as everything beyond it is reachable at least as quickly from there.
+	 * 
+	 * @param start
+	 *            The square index to search from.
+	 * @param base
+	 *            Offset of this player's distances within the table.
+	 */
+	private void queenSearch(final int start, final int base) {
+		final int[] distance = queenDistance;
+		for (int s = 0; s < geometry.squares; s++) {
+			distance[base + s] = UNREACHED;
+		}
+		distance[base + start] = 0;
+		queue[0] = start;
+		int head = 0;
+		int tail = 1;
+		while (head < tail) {
+			final int square = queue[head++];
+			final int d = distance[base + square];
+			final int firstRay = square * BoardGeometry.NUMBER_OF_DIRECTIONS;
+			for (int ray = firstRay; ray < firstRay + BoardGeometry.NUMBER_OF_DIRECTIONS; ray++) {
+				for (int i = geometry.rayStart[ray]; i < geometry.rayStart[ray + 1]; i++) {
+					final int next = geometry.rays[i];
+					if (!GameState.isBitSet(open, next) || distance[base + next] <= d) {
+						break;
+					}
+					if (distance[base + next] == UNREACHED) {
+						distance[base + next] = d + 1;
+						queue[tail++] = next;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fill in king distances from a square.
+	 * 
+	 * @param start
+	 *            The square index to search from.
+	 * @param base
+	 *            Offset of this player's distances within the table.
+	 */
+	private void kingSearch(final int start, final int base) {
+		final int[] distance = kingDistance;
+		for (int s = 0; s < geometry.squares; s++) {
+			distance[base + s] = UNREACHED;
+		}
+		distance[base + start] = 0;
+		queue[0] = start;
+		int head = 0;
+		int tail = 1;
+		while (head < tail) {
+			final int square = queue[head++];
+			final int d = distance[base + square];
+			for (int i = geometry.neighbourStart[square]; i < geometry.neighbourStart[square + 1]; i++) {
+				final int next = geometry.neighbours[i];
+				if (GameState.isBitSet(open, next) && distance[base + next] == UNREACHED) {
+					distance[base + next] = d + 1;
+					queue[tail++] = next;
+				}
+			}
+		}
+	}
+}
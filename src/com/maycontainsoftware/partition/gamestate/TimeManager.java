@@ -0,0 +1,98 @@
+package com.maycontainsoftware.partition.gamestate;
+
+/**
+ * Allocates the time an AI player may spend on each turn of a game, so that think time is predictable whatever the
+ * board and however far the game has progressed.
+ * 
+ * The budget grows with the number of tiles the game started with, as bigger boards have more turns to consider, and
+ * with the phase of the game. Few turns are worth much thought at the start, when every turn looks alike, or at the
+ * end, when the search sees to the end of the game anyway, so the budget peaks in the middle game, when about half the
+ * tiles remain. The hard limit is a fixed multiple of the soft limit, and never exceeds the configured maximum, which
+ * bounds the worst-case latency.
+ * 
+ * @author Charlie
+ */
+public class TimeManager {
+
+	/** The default soft limit for a turn in the middle of a game on a reference-sized board, in milliseconds. */
+	public static final long DEFAULT_TARGET_MILLIS = 1000;
+
+	/** The default longest time that may be spent on any turn, in milliseconds. */
+	public static final long DEFAULT_MAXIMUM_MILLIS = 2000;
+
+	/** The shortest soft limit, in milliseconds. */
+	private static final long MINIMUM_SOFT_MILLIS = 100;
+
+	/** The number of enabled tiles at the start of a game on a reference-sized board, given the target time. */
+	private static final int REFERENCE_TILES = 40;
+
+	/** The hard limit as a multiple of the soft limit. */
+	private static final int HARD_FACTOR = 2;
+
+	/** The share of the target given at the very start and end of a game. */
+	private static final double BASE_PHASE_FACTOR = 0.5;
+
+	/** The share of the target added in the middle of a game, tapering off quadratically towards the start and end. */
+	private static final double MIDDLE_GAME_BONUS = 0.75;
+
+	/** The number of enabled tiles at the start of the game. */
+	private final int initialTiles;
+
+	/** The soft limit for a turn in the middle of a game on a reference-sized board, in milliseconds. */
+	private final long targetMillis;
+
+	/** The longest time that may be spent on any turn, in milliseconds. */
+	private final long maximumMillis;
+
+	/**
+	 * Construct a new TimeManager with the default limits.
+	 * 
+	 * @param initialState
+	 *            The state at the start of the game.
+	 */
+	public TimeManager(final GameState initialState) {
+		this(initialState, DEFAULT_TARGET_MILLIS, DEFAULT_MAXIMUM_MILLIS);
+	}
+
+	/**
+	 * Construct a new TimeManager.
+	 * 
+	 * @param initialState
+	 *            The state at the start of the game.
+	 * @param targetMillis
+	 *            The soft limit for a turn in the middle of a game on a reference-sized board, in milliseconds.
+	 * @param maximumMillis
+	 *            The longest time that may be spent on any turn, in milliseconds.
+	 */
+	public TimeManager(final GameState initialState, final long targetMillis, final long maximumMillis) {
+		if (targetMillis < MINIMUM_SOFT_MILLIS || maximumMillis < targetMillis) {
+			throw new IllegalArgumentException("TimeManager::<init>;targetMillis=" + targetMillis + ",maximumMillis="
+					+ maximumMillis);
+		}
+		this.initialTiles = Math.max(1, GameState.countEnabledTiles(initialState));
+		this.targetMillis = targetMillis;
+		this.maximumMillis = maximumMillis;
+	}
+
+	/**
+	 * Allocate the budget for the next turn.
+	 * 
+	 * @param state
+	 *            The current game state, which must be from the game the TimeManager was constructed for.
+	 * @return The budget.
+	 */
+	public TurnBudget allocate(final GameState state) {
+
+		// Bigger boards have more turns to consider, but latency matters more than strength, so grow slowly
+		final double sizeFactor = Math.sqrt((double) initialTiles / REFERENCE_TILES);
+
+		// 1 at the start of the game, falling towards 0 at the end
+		final double phase = Math.min(1.0, (double) GameState.countEnabledTiles(state) / initialTiles);
+		final double phaseFactor = BASE_PHASE_FACTOR + 4 * MIDDLE_GAME_BONUS * phase * (1 - phase);
+
+		final long softMillis = Math.max(MINIMUM_SOFT_MILLIS,
+				Math.min((long) (targetMillis * sizeFactor * phaseFactor), maximumMillis / HARD_FACTOR));
+		final long hardMillis = Math.min(softMillis * HARD_FACTOR, maximumMillis);
+		return new TurnBudget(softMillis, hardMillis);
+	}
+}
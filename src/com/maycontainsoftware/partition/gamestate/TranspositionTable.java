@@ -0,0 +1,230 @@
+package com.maycontainsoftware.partition.gamestate;
+
+/**
+ * A fixed-size transposition table for the AI search, keyed by GameState hash. Each entry records the depth a position
+ * was searched to, the type of bound the score represents, the score itself and the best move found.
+ * 
+ * The table is a flat array of longs, allocated once to fit a memory budget, and is safe to share between searching
+ * threads without locking. Each entry is stored as two words: the entry data, and the hash XORed with the data. A
+ * probe only accepts an entry if the two words XOR back to the probed hash, so an entry torn by concurrent writes is
+ * simply treated as a miss.
+ * 
+ * Entries live in buckets of two. The first slot is depth-preferred: it is only replaced by a search of at least the
+ * same depth, by the same position, or by any search once the entry is left over from a previous search. The second
+ * slot always takes whatever the first slot refused.
+ * 
+ * @author Charlie
+ */
+public class TranspositionTable {
+
+	// Defined bound types
+
+	/** Constant to represent an exact score. */
+	public static final byte BOUND_EXACT = 0x1;
+
+	/** Constant to represent a lower bound; the search failed high. */
+	public static final byte BOUND_LOWER = 0x2;
+
+	/** Constant to represent an upper bound; the search failed low. */
+	public static final byte BOUND_UPPER = 0x3;
+
+	/** The value returned by probe when no entry is found. No stored entry has this value, as its bound is never 0. */
+	public static final long MISS = 0L;
+
+	/** The maximum magnitude of score that can be stored. */
+	public static final int MAX_SCORE = Short.MAX_VALUE;
+
+	/** The maximum depth that can be stored. */
+	public static final int MAX_DEPTH = 0xFF;
+
+	/** The number of bytes occupied by one entry. */
+	private static final int BYTES_PER_ENTRY = 16;
+
+	/** The number of entries in each bucket. */
+	private static final int ENTRIES_PER_BUCKET = 2;
+
+	// Layout of the data word
+
+	/** Bit offset of the 32-bit best move. */
+	private static final int MOVE_SHIFT = 0;
+
+	/** Bit offset of the 16-bit signed score. */
+	private static final int SCORE_SHIFT = 32;
+
+	/** Bit offset of the 8-bit depth. */
+	private static final int DEPTH_SHIFT = 48;
+
+	/** Bit offset of the 2-bit bound type. */
+	private static final int BOUND_SHIFT = 56;
+
+	/** Bit offset of the 6-bit search generation. */
+	private static final int GENERATION_SHIFT = 58;
+
+	/** Mask for the generation counter. */
+	private static final int GENERATION_MASK = 0x3F;
+
+	/** The table, as pairs of (hash ^ data, data) words, two pairs per bucket. */
+	private final long[] table;
+
+	/** Mask to reduce a hash to a bucket index. */
+	private final int bucketMask;
+
+	/** The current search generation, used to age out entries from earlier searches. */
+	private volatile int generation;
+
+	/**
+	 * Construct a new transposition table.
+	 * 
+	 * @param megabytes
+	 *            The memory budget. The table is sized to the largest power-of-two number of buckets that fits.
+	 */
+	public TranspositionTable(final int megabytes) {
+		final long budget = Math.max(1, megabytes) * 1024L * 1024L;
+		final long buckets = Math.min(Long.highestOneBit(budget / (BYTES_PER_ENTRY * ENTRIES_PER_BUCKET)),
+				1 << 26);
+		table = new long[(int) buckets * ENTRIES_PER_BUCKET * 2];
+		bucketMask = (int) buckets - 1;
+	}
+
+	/**
+	 * @return The number of entries the table can hold.
+	 */
+	public int capacity() {
+		return table.length / 2;
+	}
+
+	/** Remove all entries from the table. Must not be called while other threads are using the table. */
+	public void clear() {
+		for (int i = 0; i < table.length; i++) {
+			table[i] = 0L;
+		}
+	}
+
+	/**
+	 * Notify the table that a new search is starting. Entries stored by earlier searches become preferred candidates
+	 * for replacement.
+	 */
+	public void newSearch() {
+		generation = (generation + 1) & GENERATION_MASK;
+	}
+
+	/**
+	 * Look up a position.
+	 * 
+	 * @param hash
+	 *            The position hash, as from GameState.hash.
+	 * @return The entry data, to be decoded with getDepth, getBound, getScore and getMove, or MISS if the position is
+	 *         not in the table.
+	 */
+	public long probe(final long hash) {
+		final int index = index(hash);
+		for (int i = index; i < index + ENTRIES_PER_BUCKET * 2; i += 2) {
+			final long check = table[i];
+			final long data = table[i + 1];
+			if ((check ^ data) == hash && data != MISS) {
+				return data;
+			}
+		}
+		return MISS;
+	}
+
+	/**
+	 * Store the result of searching a position.
+	 * 
+	 * @param hash
+	 *            The position hash, as from GameState.hash.
+	 * @param depth
+	 *            The depth searched, clamped to MAX_DEPTH.
+	 * @param bound
+	 *            One of BOUND_EXACT, BOUND_LOWER or BOUND_UPPER.
+	 * @param score
+	 *            The score, clamped to +/-MAX_SCORE.
+	 * @param move
+	 *            The best move found, in whatever encoding the search uses.
+	 */
+	public void store(final long hash, final int depth, final byte bound, final int score, final int move) {
+		final int currentGeneration = generation;
+		final long data = ((long) move & 0xFFFFFFFFL) << MOVE_SHIFT
+				| ((long) Math.max(-MAX_SCORE, Math.min(MAX_SCORE, score)) & 0xFFFFL) << SCORE_SHIFT
+				| ((long) Math.min(MAX_DEPTH, Math.max(0, depth))) << DEPTH_SHIFT
+				| ((long) bound & 0x3L) << BOUND_SHIFT
+				| ((long) currentGeneration) << GENERATION_SHIFT;
+
+		final int index = index(hash);
+
+		// Depth-preferred slot
+		final long existing = table[index + 1];
+		if (existing == MISS || (table[index] ^ existing) == hash || getDepth(existing) <= depth
+				|| getGeneration(existing) != currentGeneration) {
+			table[index] = hash ^ data;
+			table[index + 1] = data;
+		} else {
+			// Always-replace slot
+			table[index + 2] = hash ^ data;
+			table[index + 3] = data;
+		}
+	}
+
+	/**
+	 * @param entry
+	 *            An entry returned from probe.
+	 * @return The depth the position was searched to.
+	 */
+	public static int getDepth(final long entry) {
+		return (int) (entry >>> DEPTH_SHIFT) & MAX_DEPTH;
+	}
+
+	/**
+	 * @param entry
+	 *            An entry returned from probe.
+	 * @return One of BOUND_EXACT, BOUND_LOWER or BOUND_UPPER.
+	 */
+	public static byte getBound(final long entry) {
+		return (byte) ((entry >>> BOUND_SHIFT) & 0x3L);
+	}
+
+	/**
+	 * @param entry
+	 *            An entry returned from probe.
+	 * @return The score.
+	 */
+	public static int getScore(final long entry) {
+		return (short) (entry >>> SCORE_SHIFT);
+	}
+
+	/**
+	 * @param entry
+	 *            An entry returned from probe.
+	 * @return The best move.
+	 */
+	public static int getMove(final long entry) {
+		return (int) (entry >>> MOVE_SHIFT);
+	}
+
+	/**
+	 * @param entry
+	 *            An entry returned from probe.
+	 * @return True if the entry was stored since the last call to newSearch.
+	 */
+	public boolean isCurrent(final long entry) {
+		return getGeneration(entry) == generation;
+	}
+
+	/**
+	 * @param entry
+	 *            An entry returned from probe.
+	 * @return The search generation in which the entry was stored.
+	 */
+	private static int getGeneration(final long entry) {
+		return (int) (entry >>> GENERATION_SHIFT) & GENERATION_MASK;
+	}
+
+	/**
+	 * @param hash
+	 *            A position hash.
+	 * @return The index in the table of the first word of the position's bucket.
+	 */
+	private int index(final long hash) {
+		return ((int) (hash >>> 32) & bucketMask) * ENTRIES_PER_BUCKET * 2;
+	}
+}
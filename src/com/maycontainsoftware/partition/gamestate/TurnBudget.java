@@ -0,0 +1,53 @@
+package com.maycontainsoftware.partition.gamestate;
+
+/**
+ * The time an AI player may spend on one turn. The soft limit is the time the AI should aim to use: it should not start
+ * new work, such as another iteration of a deepening search, once the soft limit has passed. The hard limit is the time
+ * by which it must have answered, abandoning any work in progress. TurnBudgets are immutable.
+ * 
+ * @author Charlie
+ */
+public final class TurnBudget {
+
+	/** The soft limit, in milliseconds. */
+	private final long softMillis;
+
+	/** The hard limit, in milliseconds. */
+	private final long hardMillis;
+
+	/**
+	 * Construct a new TurnBudget.
+	 * 
+	 * @param softMillis
+	 *            The soft limit, in milliseconds.
+	 * @param hardMillis
+	 *            The hard limit, in milliseconds. Must be no less than the soft limit.
+	 */
+	public TurnBudget(final long softMillis, final long hardMillis) {
+		if (softMillis < 0 || hardMillis < softMillis) {
+			throw new IllegalArgumentException("TurnBudget::<init>;softMillis=" + softMillis + ",hardMillis="
+					+ hardMillis);
+		}
+		this.softMillis = softMillis;
+		this.hardMillis = hardMillis;
+	}
+
+	/**
+	 * @return The soft limit, in milliseconds.
+	 */
+	public long getSoftMillis() {
+		return softMillis;
+	}
+
+	/**
+	 * @return The hard limit, in milliseconds.
+	 */
+	public long getHardMillis() {
+		return hardMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "TurnBudget[" + softMillis + "/" + hardMillis + "ms]";
+	}
+}
@@ -0,0 +1,69 @@
+package com.maycontainsoftware.partition.gamestate;
+
+/**
+ * An AI player's choice of turn, either final or the best found so far, along with how much searching lay behind it.
+ * TurnDecisions are immutable, so may be passed freely between threads.
+ * 
+ * @author Charlie
+ */
+public final class TurnDecision {
+
+	/** The chosen move, as a two-byte array. */
+	private final byte[] move;
+
+	/** The chosen shoot, as a two-byte array. */
+	private final byte[] shoot;
+
+	/** The number of turns searched ahead, or 0 if the AI doesn't search by depth. */
+	private final int depth;
+
+	/** The number of positions searched, or 0 if the AI doesn't count them. */
+	private final long nodes;
+
+	/**
+	 * Construct a new TurnDecision.
+	 * 
+	 * @param move
+	 *            The chosen move, as a two-byte array.
+	 * @param shoot
+	 *            The chosen shoot, as a two-byte array.
+	 * @param depth
+	 *            The number of turns searched ahead.
+	 * @param nodes
+	 *            The number of positions searched.
+	 */
+	TurnDecision(final byte[] move, final byte[] shoot, final int depth, final long nodes) {
+		this.move = move.clone();
+		this.shoot = shoot.clone();
+		this.depth = depth;
+		this.nodes = nodes;
+	}
+
+	/**
+	 * @return The chosen move, as a two-element byte array of coordinates.
+	 */
+	public byte[] getMove() {
+		return move.clone();
+	}
+
+	/**
+	 * @return The chosen shoot, as a two-element byte array of coordinates.
+	 */
+	public byte[] getShoot() {
+		return shoot.clone();
+	}
+
+	/**
+	 * @return The number of turns searched ahead, or 0 if the AI doesn't search by depth.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * @return The number of positions searched, or 0 if the AI doesn't count them.
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+}
@@ -0,0 +1,123 @@
+package com.maycontainsoftware.partition.gamestate;
+
+import java.util.Random;
+
+/**
+ * Streaming selection of a turn. Turns are offered one at a time with a ranking key, and only the best key seen so far
+ * is kept, along with a single turn chosen uniformly at random from all of those sharing it (reservoir sampling). This
+ * gives the same choice as collecting every turn, ranking them and picking randomly among the best, but in constant
+ * space.
+ * 
+ * Turns are encoded as (move << 16 | shoot), with moves and shoots as square indices.
+ * 
+ * @author Charlie
+ */
+class TurnReservoir {
+
+	/** Source of randomness for choosing between ties. */
+	private final Random random;
+
+	/** The best key offered so far. */
+	private long bestKey;
+
+	/** The number of turns offered with the best key. */
+	private int count;
+
+	/** The turn chosen from those with the best key. */
+	private int turn;
+
+	/**
+	 * Construct a new, empty TurnReservoir.
+	 * 
+	 * @param random
+	 *            Source of randomness for choosing between ties.
+	 */
+	TurnReservoir(final Random random) {
+		this.random = random;
+	}
+
+	/** Discard all turns offered so far. */
+	void clear() {
+		count = 0;
+	}
+
+	/**
+	 * Offer a turn.
+	 * 
+	 * @param move
+	 *            The move, as a square index.
+	 * @param shoot
+	 *            The shoot, as a square index.
+	 * @param key
+	 *            The ranking key; higher is better.
+	 */
+	void offer(final int move, final int shoot, final long key) {
+		if (count == 0 || key > bestKey) {
+			bestKey = key;
+			count = 1;
+			turn = move << 16 | shoot;
+		} else if (key == bestKey) {
+			count++;
+			if (random.nextInt(count) == 0) {
+				turn = move << 16 | shoot;
+			}
+		}
+	}
+
+	/**
+	 * Combine with another reservoir, as if every turn offered to the other had been offered to this one.
+	 * 
+	 * @param other
+	 *            The other reservoir.
+	 */
+	void merge(final TurnReservoir other) {
+		if (other.count == 0) {
+			return;
+		}
+		if (count == 0 || other.bestKey > bestKey) {
+			bestKey = other.bestKey;
+			count = other.count;
+			turn = other.turn;
+		} else if (other.bestKey == bestKey) {
+			count += other.count;
+			if (random.nextInt(count) < other.count) {
+				turn = other.turn;
+			}
+		}
+	}
+
+	/**
+	 * @return True if no turns have been offered.
+	 */
+	boolean isEmpty() {
+		return count == 0;
+	}
+
+	/**
+	 * @return The best key offered.
+	 */
+	long getBestKey() {
+		return bestKey;
+	}
+
+	/**
+	 * @return The number of turns offered with the best key.
+	 */
+	int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return The move of the chosen turn, as a square index.
+	 */
+	int getMove() {
+		return turn >>> 16;
+	}
+
+	/**
+	 * @return The shoot of the chosen turn, as a square index.
+	 */
+	int getShoot() {
+		return turn & 0xFFFF;
+	}
+}
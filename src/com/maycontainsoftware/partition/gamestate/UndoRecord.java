@@ -0,0 +1,22 @@
+package com.maycontainsoftware.partition.gamestate;
+
+/**
+ * The information required to reverse a single move or shoot applied in-place by GameState.make. Records are written by
+ * make and read by unmake, and are intended to be allocated once and reused, e.g. one per search ply.
+ * 
+ * @author Charlie
+ */
+public class UndoRecord {
+
+	/** The turn phase before the action was made. */
+	byte turnPhase;
+
+	/** The current player index before the action was made. */
+	byte currentPlayerIndex;
+
+	/** For a move, the square the player moved from. For a shoot, the square that was shot. */
+	int square;
+
+	/** The state hash before the action was made. */
+	long hash;
+}
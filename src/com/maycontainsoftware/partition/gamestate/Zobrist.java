@@ -0,0 +1,80 @@
+package com.maycontainsoftware.partition.gamestate;
+
+/**
+ * Source of the 64-bit Zobrist keys used to hash game states. A state's hash is the XOR of the keys of each enabled
+ * tile, each player's square, the current player and (when applicable) the shoot phase, so any single change to a state
+ * can be reflected in its hash with one or two XORs.
+ * 
+ * Rather than tables sized to a particular board, each key is derived on demand by passing its index through the
+ * SplitMix64 finalizer. This is only a handful of arithmetic operations, works for any board size and needs no
+ * synchronization.
+ * 
+ * @author Charlie
+ */
+final class Zobrist {
+
+	/** Arbitrary seed, chosen so that keys are not trivially related to their indices. */
+	private static final long SEED = 0x2545F4914F6CDD1DL;
+
+	/** The SplitMix64 increment, used to spread consecutive indices apart. */
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	/** Key space for enabled tiles. */
+	private static final long KIND_TILE = 1L << 56;
+
+	/** Key space for player squares. */
+	private static final long KIND_PLAYER = 2L << 56;
+
+	/** Key space for the current player. */
+	private static final long KIND_CURRENT_PLAYER = 3L << 56;
+
+	/** The key for the shoot phase. The move phase contributes nothing to the hash. */
+	static final long SHOOT_PHASE = key(4L << 56);
+
+	/** Not instantiable. */
+	private Zobrist() {
+	}
+
+	/**
+	 * @param square
+	 *            The square index.
+	 * @return The key for the specified tile being enabled.
+	 */
+	static long tile(final int square) {
+		return key(KIND_TILE | square);
+	}
+
+	/**
+	 * @param playerIndex
+	 *            The player index.
+	 * @param square
+	 *            The square index.
+	 * @return The key for the specified player standing on the specified square.
+	 */
+	static long player(final int playerIndex, final int square) {
+		return key(KIND_PLAYER | ((long) playerIndex << 32) | square);
+	}
+
+	/**
+	 * @param playerIndex
+	 *            The player index.
+	 * @return The key for it being the specified player's turn.
+	 */
+	static long currentPlayer(final int playerIndex) {
+		return key(KIND_CURRENT_PLAYER | playerIndex);
+	}
+
+	/**
+	 * Derive a key from a unique index.
+	 * 
+	 * @param index
+	 *            The index, unique across all kinds of key.
+	 * @return A well-mixed 64-bit key.
+	 */
+	private static long key(final long index) {
+		long z = SEED + index * GOLDEN_GAMMA;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,78 @@
+package com.maycontainsoftware.partition.test;
+
+import java.util.concurrent.ExecutionException;
+
+import com.maycontainsoftware.partition.BoardConfiguration;
+import com.maycontainsoftware.partition.gamestate.AIExecutor;
+import com.maycontainsoftware.partition.gamestate.GameState;
+import com.maycontainsoftware.partition.gamestate.SearchingAsyncAI;
+import com.maycontainsoftware.partition.gamestate.TurnBudget;
+import com.maycontainsoftware.partition.gamestate.TurnDecision;
+
+/**
+ * Benchmark of the searching AI's speed with different numbers of threads. Each board's opening position is searched
+ * for a fixed time with 1 thread, then 2, and so on up to the number of processors, reporting nodes per second and the
+ * scaling relative to a single thread. Optional arguments are the time per search in milliseconds, and the largest
+ * number of threads to try. The AI uses no more threads than the AIExecutor has helper threads, plus one, so scaling
+ * levels off beyond that.
+ */
+public class SearchBenchmark {
+
+	/** The default time per search, in milliseconds. */
+	private static final long DEFAULT_MILLIS = 3000;
+
+	/** The boards searched. */
+	private static final BoardConfiguration[] BOARDS = { BoardConfiguration.HUB, BoardConfiguration.WALL,
+			BoardConfiguration.STRATEGO, };
+
+	public static void main(String[] args) throws InterruptedException, ExecutionException {
+
+		final long millis = args.length > 0 ? Long.parseLong(args[0]) : DEFAULT_MILLIS;
+		final int maximumThreads = args.length > 1 ? Integer.parseInt(args[1]) : Math.max(2, Runtime.getRuntime()
+				.availableProcessors());
+
+		System.out.println("Processors: " + Runtime.getRuntime().availableProcessors() + ", time per search: " + millis
+				+ "ms");
+
+		// Warm up, so that the first measurement isn't taken before the JIT compiler has done its work
+		search(GameState.newGameState(BOARDS[0].boardSpec), 1, millis);
+
+		for (final BoardConfiguration board : BOARDS) {
+			System.out.println();
+			System.out.println("Board: " + board);
+			final GameState state = GameState.newGameState(board.boardSpec);
+			double singleThreaded = 0;
+			for (int threads = 1; threads <= maximumThreads; threads++) {
+				final long start = System.nanoTime();
+				final TurnDecision decision = search(state, threads, millis);
+				final double seconds = (System.nanoTime() - start) / 1e9;
+				final double nodesPerSecond = decision.getNodes() / seconds;
+				if (threads == 1) {
+					singleThreaded = nodesPerSecond;
+				}
+				System.out.println(String.format("\tthreads: %d, depth: %d, nodes: %d, nodes/s: %.0f, scaling: %.2f",
+						threads, decision.getDepth(), decision.getNodes(), nodesPerSecond, nodesPerSecond
+								/ singleThreaded));
+			}
+		}
+
+		AIExecutor.shutdown();
+	}
+
+	/**
+	 * Search a position with a new AI, so that nothing is carried over from earlier searches.
+	 * 
+	 * @param state
+	 *            The game state.
+	 * @param threads
+	 *            The number of threads to search with.
+	 * @param millis
+	 *            The time to search for, in milliseconds.
+	 * @return The AI's decision.
+	 */
+	private static TurnDecision search(final GameState state, final int threads, final long millis)
+			throws InterruptedException, ExecutionException {
+		final SearchingAsyncAI ai = new SearchingAsyncAI(state.currentPlayerIndex, threads);
+		return ai.think(state, new TurnBudget(millis, millis), null).get();
+	}
+}